@@ -0,0 +1,86 @@
+package se.yarin.opencbmplayer;
+
+import javafx.scene.image.WritableImage;
+import org.openjdk.jmh.annotations.*;
+import se.yarin.chess.GameMovesModel;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drawing the board on the FX thread: following a game move by move, redrawing everything after a resize,
+ * and rasterizing the canvases into an image with the software renderer.
+ * Several positions are drawn per call to the FX thread so the hand-over isn't what's measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BoardPaneBenchmark {
+    private static final int POSITIONS = 32;
+
+    private final int BOARD_SIZE = 480;
+
+    private BoardPane board;
+    private List<GameMovesModel.Node> positions;
+    private WritableImage snapshot;
+    private int next;
+
+    @Setup
+    public void setup() throws IOException, InterruptedException, ExecutionException {
+        HeadlessFx.start();
+        positions = SyntheticGames.mainLine(SyntheticGames.knightShuffle(POSITIONS * 4, 8, SyntheticGames.bundledComments(), 4));
+        board = HeadlessFx.call(() -> {
+            BoardPane pane = new BoardPane();
+            pane.resize(BOARD_SIZE, BOARD_SIZE);
+            pane.setPosition(positions.get(0));
+            return pane;
+        });
+        snapshot = new WritableImage(BOARD_SIZE, BOARD_SIZE);
+        // The piece set is rasterized in the background; measure drawing with it, not without it
+        while (HeadlessFx.call(() -> board.isPieceAtlasPending())) {
+            Thread.sleep(10);
+        }
+    }
+
+    private GameMovesModel.Node nextPosition() {
+        next = (next + 1) % positions.size();
+        return positions.get(next);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POSITIONS)
+    public BoardPane incrementalRedraw() throws InterruptedException, ExecutionException {
+        return HeadlessFx.call(() -> {
+            for (int i = 0; i < POSITIONS; i++) {
+                board.setPosition(nextPosition());
+            }
+            return board;
+        });
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POSITIONS)
+    public BoardPane fullRedraw() throws InterruptedException, ExecutionException {
+        return HeadlessFx.call(() -> {
+            for (int i = 0; i < POSITIONS; i++) {
+                // A one pixel resize invalidates all layers, but keeps the rasterized piece set
+                board.resize(BOARD_SIZE + i % 2, BOARD_SIZE);
+                board.setPosition(nextPosition());
+            }
+            return board;
+        });
+    }
+
+    @Benchmark
+    public WritableImage rasterize() throws InterruptedException, ExecutionException {
+        return HeadlessFx.call(() -> {
+            board.setPosition(nextPosition());
+            return board.snapshot(null, snapshot);
+        });
+    }
+}
@@ -0,0 +1,47 @@
+package se.yarin.opencbmplayer;
+
+import org.openjdk.jmh.annotations.*;
+import se.yarin.chess.NavigableGameModel;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Layout of the notation of large annotated games, as done by MovesPane whenever the game or the width changes.
+ * The label widths are cached as they are in the player.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NotationLayoutBenchmark {
+    private final double LAYOUT_WIDTH = 400;
+    private final double IMAGE_WIDTH = 16;
+
+    @Param({"200", "2000"})
+    public int plies;
+
+    @Param({"GREEDY", "MINIMUM_RAGGEDNESS"})
+    public LineBreaker.Mode lineBreaking;
+
+    private NavigableGameModel game;
+    private TextMeasurer textMeasurer;
+    private LineBreaker lineBreaker;
+
+    @Setup
+    public void setup() throws IOException, InterruptedException {
+        HeadlessFx.start();
+        List<String> comments = SyntheticGames.bundledComments();
+        game = SyntheticGames.knightShuffle(plies, 8, comments, 4);
+        textMeasurer = new TextMeasurer("/styles/styles.css", "moveBox", 20000);
+        lineBreaker = new LineBreaker(lineBreaking);
+    }
+
+    @Benchmark
+    public List<NotationRow> layout() {
+        return new NotationLayout(game, LAYOUT_WIDTH, IMAGE_WIDTH, textMeasurer, lineBreaker).layout();
+    }
+}
@@ -0,0 +1,114 @@
+package se.yarin.opencbmplayer;
+
+import se.yarin.chess.GameMovesModel;
+import se.yarin.chess.NavigableGameModel;
+import se.yarin.chess.ShortMove;
+import se.yarin.chess.annotations.CommentaryAfterMoveAnnotation;
+import se.yarin.chess.timeline.NavigableGameModelTimeline;
+import se.yarin.chess.timeline.ReplaceAllEvent;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static se.yarin.chess.Chess.*;
+
+/**
+ * Builds large games and timelines for the benchmarks. There is no PGN parser, so the moves are
+ * knight shuffles; the commentary is taken from the annotated games bundled with the player.
+ */
+final class SyntheticGames {
+    private static final Pattern COMMENT = Pattern.compile("\\{([^}]*)\\}");
+
+    // White and black shuffle their king's knights back and forth; the queen's knights are the alternatives
+    private static final ShortMove[] MAIN_LINE = {
+            new ShortMove(G1, F3), new ShortMove(G8, F6), new ShortMove(F3, G1), new ShortMove(F6, G8)
+    };
+    private static final ShortMove[] VARIATION = {
+            new ShortMove(B1, C3), new ShortMove(B8, C6)
+    };
+
+    private SyntheticGames() {
+    }
+
+    /**
+     * Gets the comments of the games bundled with the player, game1.pgn and game2.pgn
+     */
+    static List<String> bundledComments() throws IOException {
+        List<String> comments = new ArrayList<>();
+        for (String resource : new String[] { "/game1.pgn", "/game2.pgn" }) {
+            try (InputStream in = SyntheticGames.class.getResourceAsStream(resource)) {
+                if (in == null) {
+                    throw new IOException("Missing resource " + resource);
+                }
+                Matcher matcher = COMMENT.matcher(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+                while (matcher.find()) {
+                    String comment = matcher.group(1).trim().replaceAll("\\s+", " ");
+                    if (!comment.isEmpty()) {
+                        comments.add(comment);
+                    }
+                }
+            }
+        }
+        return comments;
+    }
+
+    /**
+     * Creates an annotated game
+     * @param plies the number of plies in the main line
+     * @param variationEvery a one move variation is added every this many plies, or 0 for none
+     * @param comments the comments to cycle through
+     * @param commentEvery a comment is added after every this many plies, or 0 for none
+     */
+    static NavigableGameModel knightShuffle(int plies, int variationEvery, List<String> comments, int commentEvery) {
+        NavigableGameModel game = new NavigableGameModel();
+        int nextComment = 0;
+        for (int ply = 0; ply < plies; ply++) {
+            game.addMove(MAIN_LINE[ply % MAIN_LINE.length]);
+            GameMovesModel.Node mainNode = game.cursor();
+            if (commentEvery > 0 && ply % commentEvery == commentEvery - 1 && !comments.isEmpty()) {
+                game.addAnnotation(new CommentaryAfterMoveAnnotation(comments.get(nextComment++ % comments.size())));
+            }
+            if (variationEvery > 0 && ply % variationEvery == variationEvery - 1) {
+                game.setCursor(mainNode.parent());
+                game.addMove(VARIATION[ply % VARIATION.length]);
+                if (!comments.isEmpty()) {
+                    game.addAnnotation(new CommentaryAfterMoveAnnotation(comments.get(nextComment++ % comments.size())));
+                }
+                game.setCursor(mainNode);
+            }
+        }
+        return game;
+    }
+
+    /**
+     * Creates a timeline where the game is replaced at a fixed interval, cycling through the given games
+     * @param events the number of events
+     * @param intervalMs the time between two events
+     */
+    static NavigableGameModelTimeline timeline(int events, int intervalMs, List<NavigableGameModel> games) {
+        NavigableGameModelTimeline timeline = new NavigableGameModelTimeline();
+        for (int i = 0; i < events; i++) {
+            timeline.addEvent(i * intervalMs, new ReplaceAllEvent(games.get(i % games.size())));
+        }
+        return timeline;
+    }
+
+    /**
+     * @return all nodes of the main line, starting with the root
+     */
+    static List<GameMovesModel.Node> mainLine(NavigableGameModel game) {
+        List<GameMovesModel.Node> nodes = new ArrayList<>();
+        GameMovesModel.Node node = game.moves().root();
+        nodes.add(node);
+        while (node.hasMoves()) {
+            node = node.mainNode();
+            nodes.add(node);
+        }
+        return nodes;
+    }
+}
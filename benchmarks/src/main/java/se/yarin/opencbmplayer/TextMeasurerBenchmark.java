@@ -0,0 +1,81 @@
+package se.yarin.opencbmplayer;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measuring the width of notation labels, with an empty (cold) and a filled (warm) width cache.
+ * The fonts are resolved during setup in both cases.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TextMeasurerBenchmark {
+    private static final int LABELS = 1024;
+
+    private final List<String> COMMENT_STYLE = Arrays.asList("label", "comment-label");
+    private final List<String> MOVE_STYLE = Arrays.asList("label", "main-line");
+
+    private String[] labels;
+    private List<String>[] styles;
+    private TextMeasurer cold;
+    private TextMeasurer warm;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setup() throws IOException, InterruptedException {
+        HeadlessFx.start();
+
+        // Comment words as measured by the line breaker, and move labels
+        List<String> words = new ArrayList<>();
+        for (String comment : SyntheticGames.bundledComments()) {
+            words.addAll(Arrays.asList(comment.split(" ")));
+        }
+        String[] moves = { "Nf3", "Nf6", "Ng1", "Ng8", "Nc3", "Nc6", "exd4", "O-O-O", "Qxf7+", "e8=Q#" };
+        labels = new String[LABELS];
+        styles = new List[LABELS];
+        for (int i = 0; i < LABELS; i++) {
+            if (i % 2 == 0) {
+                labels[i] = words.get(i / 2 % words.size());
+                styles[i] = COMMENT_STYLE;
+            } else {
+                labels[i] = (i / 2 + 1) + "." + moves[i / 2 % moves.length];
+                styles[i] = MOVE_STYLE;
+            }
+        }
+
+        // A cache that can't hold anything means that every label is measured
+        cold = new TextMeasurer("/styles/styles.css", "moveBox", 0);
+        warm = new TextMeasurer("/styles/styles.css", "moveBox", LABELS * 2);
+        for (int i = 0; i < LABELS; i++) {
+            cold.getWidth(labels[i], styles[i]);
+            warm.getWidth(labels[i], styles[i]);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LABELS)
+    public double labelWidthCold() {
+        double width = 0;
+        for (int i = 0; i < LABELS; i++) {
+            width += cold.getWidth(labels[i], styles[i]);
+        }
+        return width;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LABELS)
+    public double labelWidthWarm() {
+        double width = 0;
+        for (int i = 0; i < LABELS; i++) {
+            width += warm.getWidth(labels[i], styles[i]);
+        }
+        return width;
+    }
+}
@@ -0,0 +1,90 @@
+package se.yarin.opencbmplayer;
+
+import org.openjdk.jmh.annotations.*;
+import se.yarin.chess.NavigableGameModel;
+import se.yarin.chess.timeline.NavigableGameModelTimeline;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Navigation in long timelines: playing through the whole lecture, seeking to random times
+ * the way the player does, and building the cursor index
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TimelineBenchmark {
+    private static final int SEEKS = 64;
+
+    private final int EVENT_INTERVAL_MS = 500;
+
+    @Param({"1000", "10000"})
+    public int events;
+
+    private NavigableGameModelTimeline timeline;
+    private int[] seekTimes;
+
+    @Setup
+    public void setup() throws IOException {
+        List<String> comments = SyntheticGames.bundledComments();
+        List<NavigableGameModel> games = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            games.add(SyntheticGames.knightShuffle(40 + i * 20, 8, comments, 4));
+        }
+        timeline = SyntheticGames.timeline(events, EVENT_INTERVAL_MS, games);
+
+        Random random = new Random(0);
+        seekTimes = new int[SEEKS];
+        for (int i = 0; i < SEEKS; i++) {
+            seekTimes[i] = random.nextInt(events * EVENT_INTERVAL_MS);
+        }
+    }
+
+    @Benchmark
+    public TimelineCursorIndex buildCursorIndex() {
+        return TimelineCursorIndex.build(timeline);
+    }
+
+    @Benchmark
+    public int playToEnd() {
+        timeline.jumpTo(0);
+        return timeline.playTo(timeline.getLastEventTimestamp());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SEEKS)
+    public int jumpToRandom() {
+        int current = 0;
+        for (int time : seekTimes) {
+            timeline.jumpTo(time);
+            current += timeline.getCurrentTimestamp();
+        }
+        return current;
+    }
+
+    /**
+     * Seeks forward by playing from the current time and backward by jumping, which replays from the start.
+     * The times are random, so about half of the seeks go in each direction.
+     */
+    @Benchmark
+    @OperationsPerInvocation(SEEKS)
+    public int playOrJumpRandom() {
+        int current = 0;
+        for (int time : seekTimes) {
+            if (time >= timeline.getCurrentTimestamp()) {
+                timeline.playTo(time);
+            } else {
+                timeline.jumpTo(time);
+            }
+            current += timeline.getCurrentTimestamp();
+        }
+        return current;
+    }
+}
@@ -0,0 +1,180 @@
+package se.yarin.opencbmplayer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se.yarin.cbhlib.media.ChessBaseMediaException;
+import se.yarin.cbhlib.media.ChessBaseMediaLoader;
+import se.yarin.chess.GameMovesModel;
+import se.yarin.chess.timeline.GameEventException;
+import se.yarin.chess.timeline.NavigableGameModelTimeline;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Exports the timelines of all media files in a directory tree to PGN, without any GUI or libvlc.
+ * The files are parsed on a pool of worker threads; the PGN is written in file order as soon as
+ * each file is done.
+ *
+ * Usage: BatchExport [--threads N] directory [output.pgn]
+ */
+public class BatchExport {
+    private static final Logger log = LoggerFactory.getLogger(BatchExport.class);
+
+    private static class Result {
+        private final String pgn;
+        private final int games;
+
+        Result(String pgn, int games) {
+            this.pgn = pgn;
+            this.games = games;
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        List<String> positional = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--threads") && i + 1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+            } else {
+                positional.add(args[i]);
+            }
+        }
+        if (positional.isEmpty() || positional.size() > 2) {
+            System.err.println("Usage: BatchExport [--threads N] directory [output.pgn]");
+            System.exit(1);
+        }
+
+        Path root = Paths.get(positional.get(0));
+        List<Path> files;
+        try (Stream<Path> stream = Files.walk(root)) {
+            files = stream
+                    .filter(Files::isRegularFile)
+                    .filter(path -> path.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".wmv"))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+
+        OutputStream os = positional.size() > 1 ? Files.newOutputStream(Paths.get(positional.get(1))) : System.out;
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(os, StandardCharsets.UTF_8))) {
+            export(files, out, threads);
+        }
+    }
+
+    /**
+     * Exports media files to PGN
+     * @param files the media files
+     * @param out where the PGN is written, in the same order as the files
+     * @param threads the number of worker threads
+     */
+    public static void export(List<Path> files, Writer out, int threads) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "batchExport");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        // Only a limited number of files are in flight, so the memory use doesn't depend on the number of files
+        int maxInFlight = threads * 2;
+        Deque<Future<Result>> inFlight = new ArrayDeque<>();
+        int next = 0, exported = 0, failed = 0, games = 0;
+        long bytes = 0;
+        try {
+            while (next < files.size() || !inFlight.isEmpty()) {
+                while (next < files.size() && inFlight.size() < maxInFlight) {
+                    Path file = files.get(next++);
+                    inFlight.add(pool.submit(() -> exportFile(file)));
+                }
+                try {
+                    Result result = inFlight.removeFirst().get();
+                    if (result == null) {
+                        failed++;
+                    } else {
+                        out.write(result.pgn);
+                        out.flush();
+                        exported++;
+                        games += result.games;
+                    }
+                } catch (ExecutionException e) {
+                    log.warn("Failed to export a media file", e.getCause());
+                    failed++;
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        for (Path file : files) {
+            bytes += file.toFile().length();
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        log.info(String.format("Exported %d games from %d media files (%d failed) in %.1f s using %d threads: %.1f files/s, %.1f MB/s",
+                games, exported, failed, seconds, threads,
+                (exported + failed) / seconds, bytes / 1024.0 / 1024.0 / seconds));
+    }
+
+    /**
+     * Replays the timeline of a media file and writes every game shown in it.
+     * @return the PGN, or null if the file couldn't be parsed
+     */
+    static Result exportFile(Path path) throws IOException {
+        NavigableGameModelTimeline timeline;
+        try {
+            timeline = ChessBaseMediaLoader.loadMedia(path.toFile());
+        } catch (ChessBaseMediaException | IOException e) {
+            log.warn("Failed to parse " + path + ": " + e.getMessage());
+            return null;
+        }
+
+        StringWriter pgn = new StringWriter();
+        PgnWriter writer = new PgnWriter(pgn);
+        int games = 0;
+
+        // A new game is detected when the game tree is replaced; the moves are timestamped
+        // with the first time the board cursor was at them
+        GameMovesModel.Node root = null;
+        Map<String, String> tags = null;
+        Map<GameMovesModel.Node, Integer> timestamps = new IdentityHashMap<>();
+
+        timeline.jumpTo(0);
+        while (timeline.getNextEventTimestamp() != Integer.MAX_VALUE) {
+            try {
+                timeline.applyNextEvent();
+            } catch (GameEventException e) {
+                log.debug("Failed to apply timeline event in " + path, e);
+            }
+            if (timeline.getNextEventTimestamp() == timeline.getCurrentTimestamp()) {
+                continue;
+            }
+            GameMovesModel.Node currentRoot = timeline.getModel().moves().root();
+            if (currentRoot != root) {
+                if (root != null && root.hasMoves()) {
+                    writer.writeGame(tags, root, timestamps);
+                    games++;
+                }
+                root = currentRoot;
+                timestamps = new IdentityHashMap<>();
+            }
+            // The header may be replaced by a later game, so keep a copy of its tags
+            tags = PgnWriter.tagsOf(timeline.getModel().header());
+            GameMovesModel.Node cursor = timeline.getModel().cursor();
+            if (cursor != null) {
+                timestamps.putIfAbsent(cursor, timeline.getCurrentTimestamp());
+            }
+        }
+        if (root != null && root.hasMoves()) {
+            writer.writeGame(tags, root, timestamps);
+            games++;
+        }
+        return new Result(pgn.toString(), games);
+    }
+}
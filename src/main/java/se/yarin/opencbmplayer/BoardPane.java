@@ -0,0 +1,435 @@
+package se.yarin.opencbmplayer;
+
+import javafx.geometry.Point2D;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.Image;
+import javafx.scene.layout.Pane;
+import javafx.scene.paint.Color;
+import javafx.scene.paint.Paint;
+import javafx.scene.shape.Rectangle;
+import javafx.scene.transform.Affine;
+import javafx.scene.transform.Transform;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se.yarin.cbhlib.annotations.GraphicalAnnotationColor;
+import se.yarin.cbhlib.annotations.GraphicalArrowsAnnotation;
+import se.yarin.cbhlib.annotations.GraphicalSquaresAnnotation;
+import se.yarin.chess.Chess;
+import se.yarin.chess.GameMovesModel;
+import se.yarin.chess.Player;
+import se.yarin.chess.Stone;
+import se.yarin.chess.annotations.Annotations;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Draws a chess board using three layers:
+ * <ul>
+ *     <li>the board itself, which is only redrawn when the size changes</li>
+ *     <li>the pieces and highlighted squares, where only the squares that changed are redrawn</li>
+ *     <li>an overlay with the graphical arrows, redrawn when the arrows change</li>
+ * </ul>
+ */
+public class BoardPane extends Pane {
+    private static final Logger log = LoggerFactory.getLogger(BoardPane.class);
+
+    private static Image boardBackground = new Image("/images/wooden-background.jpg");
+
+    private final double BOARD_EDGE_SIZE = 0.15; // Size of board edge relative to the size of a square
+
+    private final double GRAPHICAL_ARROW_OPACITY = 0.6;
+    private final double GRAPHICAL_SQUARE_OPACITY = 0.4;
+    private final int GRAPHICAL_COLOR_INTENSITY = 220;
+
+    // The piece set must have the six pieces (R, N, B, Q, K, P) in a row, white above black.
+    // Any format the image loaders support can be used, e.g. -Dopencbmplayer.pieceSet=file:/path/to/pieces.svg
+    private final String PIECE_SET = System.getProperty("opencbmplayer.pieceSet", "/images/pieces.png");
+
+    private double squareSize, boardSize, xMargin, yMargin, edgeSize;
+
+    // The piece set rasterized in device pixels. When the square size changes, the new size is rasterized
+    // in the background and the previous atlas is drawn scaled until it's done.
+    private Image pieceAtlas;
+    private double pieceAtlasPixels; // The size of a square in pieceAtlas
+    private Image pendingAtlas;
+    private int atlasSquareSize;
+    private double atlasScale;
+
+    private final Canvas boardLayer = new Canvas();
+    private final Canvas piecesLayer = new Canvas();
+    private final Canvas overlayLayer = new Canvas();
+
+    private GameMovesModel.Node position;
+    private RedrawScheduler.Redraw redraw;
+
+    // What is currently drawn on the layers; null means that it needs to be redrawn
+    private boolean boardLayerValid;
+    private final Stone[] drawnStones = new Stone[64];
+    private final Paint[] drawnHighlights = new Paint[64];
+    private GraphicalArrowsAnnotation drawnArrows;
+    private boolean overlayLayerValid;
+
+    /**
+     * Makes sure the board images are decoded; used for doing this on a background thread during startup
+     */
+    static void preloadImages() {
+        log.debug("Board background is " + boardBackground.getWidth() + "x" + boardBackground.getHeight());
+    }
+
+    public BoardPane() {
+        getChildren().addAll(boardLayer, piecesLayer, overlayLayer);
+        for (Canvas layer : Arrays.asList(boardLayer, piecesLayer, overlayLayer)) {
+            layer.widthProperty().bind(widthProperty());
+            layer.heightProperty().bind(heightProperty());
+        }
+
+        widthProperty().addListener(observable -> invalidateSize());
+        heightProperty().addListener(observable -> invalidateSize());
+    }
+
+    /**
+     * Makes the board redraw through the scheduler, at most once per frame, instead of immediately
+     */
+    public void setRedrawScheduler(RedrawScheduler scheduler) {
+        this.redraw = scheduler.register("board", this::draw);
+    }
+
+    /**
+     * Sets the position to show and redraws the parts of the board that changed
+     * @param position the node in the game with the position and the graphical annotations to show
+     */
+    public void setPosition(GameMovesModel.Node position) {
+        this.position = position;
+        invalidate();
+    }
+
+    private void invalidateSize() {
+        boardLayerValid = false;
+        invalidate();
+    }
+
+    private void invalidate() {
+        if (redraw != null) {
+            redraw.invalidate();
+        } else {
+            draw();
+        }
+    }
+
+    private void draw() {
+        PlayerEvents.BoardRedraw event = new PlayerEvents.BoardRedraw();
+        event.begin();
+        long start = System.nanoTime();
+
+        event.fullRedraw = !boardLayerValid;
+        if (!boardLayerValid) {
+            initBoardSize();
+            drawBoardLayer();
+            // Everything on the other layers has moved as well
+            Arrays.fill(drawnStones, null);
+            Arrays.fill(drawnHighlights, null);
+            piecesLayer.getGraphicsContext2D().clearRect(0, 0, getWidth(), getHeight());
+            overlayLayerValid = false;
+            boardLayerValid = true;
+        }
+
+        int redrawnSquares = 0;
+        if (position != null) {
+            redrawnSquares = drawPiecesLayer();
+            drawOverlayLayer();
+        }
+
+        long stop = System.nanoTime();
+        Metrics.get().boardDrawn(stop - start);
+        event.squaresRedrawn = redrawnSquares;
+        event.commit();
+    }
+
+    private void initBoardSize() {
+        double w = getWidth(), h = getHeight();
+        squareSize = Math.min(w, h) / (8 + BOARD_EDGE_SIZE * 2);
+        boardSize = (8 + BOARD_EDGE_SIZE * 2) * squareSize;
+        xMargin = (w - boardSize) / 2;
+        yMargin = (h - boardSize) / 2;
+        edgeSize = BOARD_EDGE_SIZE * squareSize;
+        initPieceAtlas();
+    }
+
+    /**
+     * Starts rasterizing the piece set at the size of a square so that drawing a piece doesn't need any scaling.
+     * This is only done when the square size or the output scale changes, and on a background thread
+     * so that resizing the window doesn't decode the piece set on the FX thread for every new size.
+     */
+    private void initPieceAtlas() {
+        double scale = getOutputScale();
+        int size = (int) Math.floor(squareSize);
+        if (size == atlasSquareSize && scale == atlasScale) {
+            return;
+        }
+        atlasSquareSize = size;
+        atlasScale = scale;
+        if (pendingAtlas != null) {
+            // Superseded by the new size
+            pendingAtlas.cancel();
+            pendingAtlas = null;
+        }
+        if (size <= 0) {
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        int pixels = (int) Math.round(size * scale);
+        Image atlas = new Image(PIECE_SET, 6 * pixels, 2 * pixels, false, true, true);
+        pendingAtlas = atlas;
+        atlas.progressProperty().addListener((observable, oldValue, progress) -> {
+            if (progress.doubleValue() >= 1.0) {
+                pieceAtlasLoaded(atlas, pixels, start);
+            }
+        });
+        atlas.errorProperty().addListener((observable, oldValue, error) -> {
+            if (error) {
+                pieceAtlasLoaded(atlas, pixels, start);
+            }
+        });
+    }
+
+    /**
+     * @return true if the piece set is being rasterized at a new size
+     */
+    boolean isPieceAtlasPending() {
+        return pendingAtlas != null;
+    }
+
+    private void pieceAtlasLoaded(Image atlas, int pixels, long start) {
+        if (atlas != pendingAtlas) {
+            return;
+        }
+        pendingAtlas = null;
+        if (atlas.isError()) {
+            // Keep drawing the previous atlas, if there is one
+            log.warn("Failed to load piece set " + PIECE_SET, atlas.getException());
+            return;
+        }
+        pieceAtlas = atlas;
+        pieceAtlasPixels = pixels;
+        long stop = System.currentTimeMillis();
+        log.debug("rasterized piece set at " + pixels + " px per square in " + (stop-start) + " ms");
+
+        // Redraw all pieces with the new atlas
+        Arrays.fill(drawnStones, null);
+        invalidate();
+    }
+
+    private double getOutputScale() {
+        if (getScene() != null && getScene().getWindow() != null) {
+            return getScene().getWindow().getOutputScaleX();
+        }
+        return 1.0;
+    }
+
+    /**
+     * Gets a square with its edges on device pixels. Squares that are cleared and redrawn one by one
+     * must not have partly covered pixels at the edges, or traces of what was there before remain.
+     * Neighbouring squares share their edges, so there are no gaps.
+     */
+    private Rectangle getSnappedSquareRect(int x, int y) {
+        double scale = getOutputScale();
+        double left = snap(xMargin + squareSize * (x + BOARD_EDGE_SIZE), scale);
+        double right = snap(xMargin + squareSize * (x + 1 + BOARD_EDGE_SIZE), scale);
+        double top = snap(yMargin + squareSize * (7 - y + BOARD_EDGE_SIZE), scale);
+        double bottom = snap(yMargin + squareSize * (8 - y + BOARD_EDGE_SIZE), scale);
+        return new Rectangle(left, top, right - left, bottom - top);
+    }
+
+    private static double snap(double value, double scale) {
+        return Math.round(value * scale) / scale;
+    }
+
+    private Point2D getSquareMidpoint(int x, int y) {
+        return new Point2D(
+                xMargin + squareSize * (x + BOARD_EDGE_SIZE) + squareSize / 2,
+                yMargin + squareSize * (7 - y + BOARD_EDGE_SIZE) + squareSize / 2);
+    }
+
+    private Rectangle getSquareRect(int x, int y) {
+        return new Rectangle(
+                xMargin + squareSize * (x + BOARD_EDGE_SIZE),
+                yMargin + squareSize * (7 - y + BOARD_EDGE_SIZE),
+                squareSize,
+                squareSize);
+    }
+
+    private void drawBoardLayer() {
+        GraphicsContext gc = boardLayer.getGraphicsContext2D();
+
+        // Overwrite entire canvas is necessary when resizing
+        if (getParent() != null) {
+            getParent().setStyle("-fx-background-color: darkgray;");
+        }
+        gc.setFill(Color.DARKGRAY);
+        gc.fillRect(0, 0, getWidth(), getHeight());
+
+//        gc.drawImage(boardBackground, 0, 0, 2000, 1500, xMargin, yMargin, boardSize, boardSize);
+        gc.drawImage(boardBackground, 0, 0, 3800, 2900, xMargin, yMargin, boardSize, boardSize);
+
+        gc.setFill(Color.rgb(128, 0, 0, 0.5));
+        gc.fillRect(xMargin, yMargin, boardSize, edgeSize);
+        gc.fillRect(xMargin, yMargin + boardSize - edgeSize, boardSize, edgeSize);
+        gc.fillRect(xMargin, yMargin + edgeSize, edgeSize, boardSize - edgeSize * 2);
+        gc.fillRect(xMargin + boardSize - edgeSize , yMargin + edgeSize, edgeSize, boardSize - edgeSize * 2);
+        gc.setLineWidth(1.0);
+        gc.setStroke(Color.rgb(64, 0, 0, 0.3));
+        gc.strokeRect(xMargin, yMargin, boardSize, boardSize);
+        gc.strokeRect(xMargin + edgeSize , yMargin + edgeSize, boardSize - 2 * edgeSize, boardSize - 2 * edgeSize);
+
+        for (int y = 0; y < 8; y++) {
+            for (int x = 0; x < 8; x++) {
+                Rectangle sq = getSquareRect(x, y);
+                if ((x+y)%2 == 0) {
+                    gc.setFill(Color.rgb(139, 69, 19, 0.6));
+//                    gc.setFill(Color.rgb(160, 82, 45, 0.6));
+                    gc.fillRect(sq.getX(), sq.getY(), sq.getWidth(), sq.getHeight());
+                }
+            }
+        }
+    }
+
+    /**
+     * Redraws the squares where the piece or the highlight has changed
+     * @return the number of redrawn squares
+     */
+    private int drawPiecesLayer() {
+        GraphicsContext gc = piecesLayer.getGraphicsContext2D();
+        Paint[] highlights = getSquareHighlights();
+
+        int redrawn = 0;
+        for (int y = 0; y < 8; y++) {
+            for (int x = 0; x < 8; x++) {
+                int i = x * 8 + y;
+                Stone stone = position.position().stoneAt(x, y);
+                if (stone == drawnStones[i] && Objects.equals(highlights[i], drawnHighlights[i])) {
+                    continue;
+                }
+                Rectangle sq = getSnappedSquareRect(x, y);
+                gc.clearRect(sq.getX(), sq.getY(), sq.getWidth(), sq.getHeight());
+                if (highlights[i] != null) {
+                    gc.setFill(highlights[i]);
+                    gc.fillRect(sq.getX(), sq.getY(), sq.getWidth(), sq.getHeight());
+                }
+                drawPiece(gc, x, y, stone);
+                drawnStones[i] = stone;
+                drawnHighlights[i] = highlights[i];
+                redrawn++;
+            }
+        }
+        return redrawn;
+    }
+
+    private Paint getGraphicalColor(GraphicalAnnotationColor color, double opacity) {
+        switch (color) {
+            case GREEN:
+                return Color.rgb(255-GRAPHICAL_COLOR_INTENSITY, GRAPHICAL_COLOR_INTENSITY, 255-GRAPHICAL_COLOR_INTENSITY, opacity);
+            case YELLOW:
+                return Color.rgb(GRAPHICAL_COLOR_INTENSITY, GRAPHICAL_COLOR_INTENSITY, 255-GRAPHICAL_COLOR_INTENSITY, opacity);
+            case RED:
+                return Color.rgb(GRAPHICAL_COLOR_INTENSITY, 255-GRAPHICAL_COLOR_INTENSITY, 255-GRAPHICAL_COLOR_INTENSITY, opacity);
+            default:
+                return null;
+        }
+    }
+
+    private Paint[] getSquareHighlights() {
+        Paint[] highlights = new Paint[64];
+        GraphicalSquaresAnnotation gsa = position.getAnnotations().getAnnotation(GraphicalSquaresAnnotation.class);
+        if (gsa == null) {
+            return highlights;
+        }
+        for (GraphicalSquaresAnnotation.Square gsq : gsa.getSquares()) {
+            int x = Chess.sqiToCol(gsq.getSqi()), y = Chess.sqiToRow(gsq.getSqi());
+            highlights[x * 8 + y] = getGraphicalColor(gsq.getColor(), GRAPHICAL_SQUARE_OPACITY);
+        }
+        return highlights;
+    }
+
+    private void drawOverlayLayer() {
+        Annotations annotations = position.getAnnotations();
+        GraphicalArrowsAnnotation gsa = annotations.getAnnotation(GraphicalArrowsAnnotation.class);
+        if (overlayLayerValid && Objects.equals(gsa, drawnArrows)) {
+            return;
+        }
+
+        GraphicsContext gc = overlayLayer.getGraphicsContext2D();
+        gc.clearRect(0, 0, getWidth(), getHeight());
+        drawnArrows = gsa;
+        overlayLayerValid = true;
+        if (gsa == null) {
+            return;
+        }
+        for (GraphicalArrowsAnnotation.Arrow ga : gsa.getArrows()) {
+            int src = ga.getFromSqi(), dest = ga.getToSqi();
+            int x1 = Chess.sqiToCol(src), y1 = Chess.sqiToRow(src);
+            int x2 = Chess.sqiToCol(dest), y2 = Chess.sqiToRow(dest);
+            Paint p = getGraphicalColor(ga.getColor(), GRAPHICAL_ARROW_OPACITY);
+            if (p == null) {
+                continue;
+            }
+            Point2D p1 = getSquareMidpoint(x1, y1);
+            Point2D p2 = getSquareMidpoint(x2, y2);
+            drawArrow(gc, p1.getX(), p1.getY(), p2.getX(), p2.getY(), p);
+        }
+    }
+
+    void drawArrow(GraphicsContext gc, double x1, double y1, double x2, double y2, Paint color) {
+        gc.setFill(color);
+
+        double dx = x2 - x1, dy = y2 - y1;
+        double angle = Math.atan2(dy, dx);
+        double len = Math.sqrt(dx * dx + dy * dy);
+
+        Transform transform = Transform.translate(x1, y1);
+        transform = transform.createConcatenation(Transform.rotate(Math.toDegrees(angle), 0, 0));
+        gc.setTransform(new Affine(transform));
+
+        double arrowStart = squareSize * 0.05;
+        double arrowLength = len - squareSize * 0.2;
+        double arrowHeadWidth  = squareSize * 0.22;
+        double arrowHeadHeight = squareSize * 0.45;
+        double arrowHeadHeight2 = arrowHeadHeight * 0.8;
+        double arrowWidth = squareSize * 0.05;
+        gc.fillPolygon(
+                new double[] {arrowLength, arrowLength - arrowHeadHeight, arrowLength - arrowHeadHeight2, arrowStart, arrowStart, arrowLength - arrowHeadHeight2, arrowLength-arrowHeadHeight, arrowLength},
+                new double[] {0, -arrowHeadWidth, -arrowWidth, -arrowWidth, arrowWidth, arrowWidth, arrowHeadWidth, 0},
+                8);
+        gc.setTransform(new Affine());
+    }
+
+    private void drawPiece(GraphicsContext gc, int x, int y, Stone stone) {
+        if (stone.isNoStone()) return;
+
+        int sx = 0, sy = stone.toPlayer() == Player.WHITE ? 0 : 1;
+
+        switch (stone.toPiece()) {
+            case PAWN:   sx = 5; break;
+            case KNIGHT: sx = 1; break;
+            case BISHOP: sx = 2; break;
+            case ROOK:   sx = 0; break;
+            case QUEEN:  sx = 3; break;
+            case KING:   sx = 4; break;
+        }
+
+        if (pieceAtlas == null) return;
+
+        // Snap to the pixel grid and center in the square so the sprite is copied without resampling.
+        // If the atlas for the current size isn't ready yet, the sprite from the previous one is scaled.
+        Rectangle sq = getSquareRect(x, y);
+        double offset = (squareSize - atlasSquareSize) / 2;
+        double px = Math.round((sq.getX() + offset) * atlasScale) / atlasScale;
+        double py = Math.round((sq.getY() + offset) * atlasScale) / atlasScale;
+        double pixels = pieceAtlasPixels;
+
+        gc.drawImage(pieceAtlas, sx * pixels, sy * pixels, pixels, pixels,
+                px, py, atlasSquareSize, atlasSquareSize);
+    }
+}
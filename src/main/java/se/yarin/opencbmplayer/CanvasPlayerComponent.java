@@ -3,62 +3,281 @@ package se.yarin.opencbmplayer;
 import com.sun.jna.Memory;
 import javafx.application.Platform;
 import javafx.beans.property.FloatProperty;
+import javafx.beans.property.ReadOnlyObjectProperty;
+import javafx.beans.property.ReadOnlyObjectWrapper;
 import javafx.beans.property.SimpleFloatProperty;
-import javafx.geometry.Rectangle2D;
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelBuffer;
 import javafx.scene.image.PixelFormat;
 import javafx.scene.image.WritableImage;
 import javafx.scene.image.WritablePixelFormat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import uk.co.caprica.vlcj.component.DirectMediaPlayerComponent;
+import uk.co.caprica.vlcj.player.MediaPlayer;
+import uk.co.caprica.vlcj.player.MediaPlayerEventAdapter;
 import uk.co.caprica.vlcj.player.direct.BufferFormat;
 import uk.co.caprica.vlcj.player.direct.BufferFormatCallback;
 import uk.co.caprica.vlcj.player.direct.DirectMediaPlayer;
 import uk.co.caprica.vlcj.player.direct.format.RV32BufferFormat;
 
 import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class CanvasPlayerComponent extends DirectMediaPlayerComponent {
+    private static final Logger log = LoggerFactory.getLogger(CanvasPlayerComponent.class);
+
+    // Don't reallocate the video buffer unless the wanted size differs at least this much (relative)
+    private static final double REALLOCATE_THRESHOLD = 0.1;
 
     private WritablePixelFormat<ByteBuffer> pixelFormat = PixelFormat.getByteBgraPreInstance();
-    private WritableImage image;
+    private ReadOnlyObjectWrapper<Image> imageProperty = new ReadOnlyObjectWrapper<>();
     private FloatProperty videoSourceRatioProperty = new SimpleFloatProperty(0.75f);
 
+    // If true, frames are copied as is into a buffer shared with the image through a PixelBuffer,
+    // instead of being converted through the PixelWriter of a WritableImage
+    private final boolean usePixelBuffer;
+
+    private final CanvasBufferFormatCallback formatCallback;
+    private final ExecutorService restartExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "videoRestart");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Only accessed on the FX thread. The PixelBuffer wraps a buffer owned by this component, never
+    // vlcj's native buffer, since that is freed when vlcj reallocates it while the image may still be rendered.
+    private WritableImage copyImage;
+    private PixelBuffer<ByteBuffer> pixelBuffer;
+    private ByteBuffer frameBuffer;
+
+    // Set while an upload is queued on the FX thread; frames arriving in the meantime are dropped
+    // since the queued upload will pick up the latest content of the native buffer anyway
+    private final AtomicBoolean uploadPending = new AtomicBoolean();
+    // Incremented on every seek, so a restart can tell if the time it read is outdated
+    private final AtomicLong seekGeneration = new AtomicLong();
+    private volatile long lastSeekTime;
+
     public FloatProperty getVideoSourceRatioProperty() {
         return videoSourceRatioProperty;
     }
 
-    public CanvasPlayerComponent(int renderWidth, int renderHeight, WritableImage image) {
-        super(new CanvasBufferFormatCallback(renderWidth, renderHeight));
-        this.image = image;
+    /**
+     * The image the video is rendered into. A new image is set whenever the
+     * video buffer is (re)allocated, so consumers should bind to this property.
+     */
+    public ReadOnlyObjectProperty<Image> imageProperty() {
+        return imageProperty.getReadOnlyProperty();
+    }
+
+    /**
+     * Creates a new player component
+     * @param maxRenderWidth the maximum width of the video buffer, regardless of the size of the view
+     * @param maxRenderHeight the maximum height of the video buffer, regardless of the size of the view
+     * @param usePixelBuffer if true, copy the frames into a buffer shared with the image instead of
+     *                       writing them through a PixelWriter
+     */
+    public CanvasPlayerComponent(int maxRenderWidth, int maxRenderHeight, boolean usePixelBuffer) {
+        this(new CanvasBufferFormatCallback(maxRenderWidth, maxRenderHeight), usePixelBuffer);
+    }
+
+    private CanvasPlayerComponent(CanvasBufferFormatCallback formatCallback, boolean usePixelBuffer) {
+        super(formatCallback);
+        this.formatCallback = formatCallback;
+        this.usePixelBuffer = usePixelBuffer;
+        formatCallback.ratioProperty = videoSourceRatioProperty;
+        getMediaPlayer().addMediaPlayerEventListener(new MediaPlayerEventAdapter() {
+            @Override
+            public void playing(MediaPlayer mediaPlayer) {
+                // Never while paused, since restarting would play a bit of audio and video
+                if (formatCallback.reallocatePending) {
+                    restartVideoOutput(-1);
+                }
+            }
+        });
+    }
+
+    /**
+     * Sets the size (in physical pixels) of the area the video is shown in.
+     * The video is then decoded at the largest size that fits within this area, keeping
+     * the aspect ratio of the source and never exceeding the source size or the maximum render size.
+     * If the buffer size changes significantly, a new buffer is allocated the next time the
+     * playback is interrupted anyway, i.e. when the video starts or resumes playing, or is seeked while playing.
+     * A paused video keeps its buffer, scaled, until it's played again.
+     */
+    public void setTargetSize(int width, int height) {
+        formatCallback.setTargetSize(width, height);
+    }
+
+    /**
+     * Moves the video to a new time. If the video buffer should be reallocated, the video output is
+     * restarted at the new time.
+     */
+    public void seek(long time) {
+        lastSeekTime = time;
+        seekGeneration.incrementAndGet();
+        if (formatCallback.reallocatePending && getMediaPlayer().isPlaying()) {
+            restartVideoOutput(time);
+        } else {
+            getMediaPlayer().setTime(time);
+        }
+    }
+
+    /**
+     * Restarts the video output so that a new buffer gets allocated. Only done while playing;
+     * if the video has been paused by the time the restart runs, it's done when it plays again.
+     * @param time the time to restart at, or -1 for the current time
+     */
+    private void restartVideoOutput(long time) {
+        DirectMediaPlayer mediaPlayer = getMediaPlayer();
+        // vlcj only negotiates a new buffer format when the video output is recreated;
+        // the restart blocks until playback has started so it's done off the FX thread
+        restartExecutor.execute(() -> {
+            if (!formatCallback.reallocatePending || !mediaPlayer.isPlaying()) {
+                // Already done by an earlier restart, or paused since
+                return;
+            }
+            // Cleared here as well, so the playing event caused by the restart doesn't start another one
+            // even if no new format is negotiated
+            formatCallback.reallocatePending = false;
+            long generation = seekGeneration.get();
+            long restartTime = time >= 0 ? time : mediaPlayer.getTime();
+            log.debug("Restarting video output at {} ms to reallocate the video buffer", restartTime);
+            mediaPlayer.stop();
+            mediaPlayer.start();
+            // A seek done during the restart wins over the time read before it
+            mediaPlayer.setTime(seekGeneration.get() != generation ? lastSeekTime : restartTime);
+        });
     }
 
     @Override
     public void display(DirectMediaPlayer mediaPlayer, Memory[] nativeBuffers, BufferFormat bufferFormat) {
+        Metrics.get().frameReceived();
+        if (!uploadPending.compareAndSet(false, true)) {
+            Metrics.get().frameDropped();
+            return;
+        }
+        long queuedAt = System.nanoTime();
         Platform.runLater(() -> {
+            // Clear the flag before uploading so a frame decoded during the upload schedules a new one
+            uploadPending.set(false);
+            PlayerEvents.FrameDisplay event = new PlayerEvents.FrameDisplay();
+            event.begin();
+            long start = System.nanoTime();
             Memory nativeBuffer = mediaPlayer.lock()[0];
             try {
-                ByteBuffer byteBuffer = nativeBuffer.getByteBuffer(0, nativeBuffer.size());
-                image.getPixelWriter().setPixels(0, 0, bufferFormat.getWidth(), bufferFormat.getHeight(), pixelFormat, byteBuffer, bufferFormat.getPitches()[0]);
+                if (nativeBuffer.size() < (long) bufferFormat.getPitches()[0] * bufferFormat.getHeight()) {
+                    // The buffer has been reallocated for another format since this frame was decoded
+                    return;
+                }
+                if (usePixelBuffer) {
+                    shareFrame(nativeBuffer, bufferFormat);
+                } else {
+                    copyFrame(nativeBuffer, bufferFormat);
+                }
             } finally {
                 mediaPlayer.unlock();
             }
+            Metrics.get().frameDisplayed(start - queuedAt, System.nanoTime() - start);
+            event.width = bufferFormat.getWidth();
+            event.height = bufferFormat.getHeight();
+            event.queueLatency = start - queuedAt;
+            event.pixelBuffer = usePixelBuffer;
+            event.commit();
         });
     }
 
+    /**
+     * Copies the frame as is into the buffer shared with the image. This is done under the vlcj buffer lock
+     * and inside updateBuffer, so neither vlcj nor the renderer sees a half written frame.
+     */
+    private void shareFrame(Memory nativeBuffer, BufferFormat bufferFormat) {
+        int width = bufferFormat.getWidth(), height = bufferFormat.getHeight();
+        if (pixelBuffer == null || pixelBuffer.getWidth() != width || pixelBuffer.getHeight() != height) {
+            frameBuffer = ByteBuffer.allocateDirect(width * height * 4);
+            pixelBuffer = new PixelBuffer<>(width, height, frameBuffer, pixelFormat);
+            imageProperty.set(new WritableImage(pixelBuffer));
+        }
+        ByteBuffer source = nativeBuffer.getByteBuffer(0, frameBuffer.capacity());
+        pixelBuffer.updateBuffer(pb -> {
+            frameBuffer.clear();
+            frameBuffer.put(source);
+            return null;
+        });
+    }
+
+    private void copyFrame(Memory nativeBuffer, BufferFormat bufferFormat) {
+        int width = bufferFormat.getWidth(), height = bufferFormat.getHeight();
+        if (copyImage == null || copyImage.getWidth() != width || copyImage.getHeight() != height) {
+            copyImage = new WritableImage(width, height);
+            imageProperty.set(copyImage);
+        }
+        ByteBuffer byteBuffer = nativeBuffer.getByteBuffer(0, nativeBuffer.size());
+        copyImage.getPixelWriter().setPixels(0, 0, width, height, pixelFormat, byteBuffer, bufferFormat.getPitches()[0]);
+    }
+
     private static class CanvasBufferFormatCallback implements BufferFormatCallback {
 
-        private int renderWidth;
-        private int renderHeight;
+        private final int maxRenderWidth;
+        private final int maxRenderHeight;
+        private FloatProperty ratioProperty;
 
-        public CanvasBufferFormatCallback(int renderWidth, int renderHeight) {
-            this.renderWidth = renderWidth;
-            this.renderHeight = renderHeight;
+        // The target size is set from the FX thread, the rest is set from the vlcj callback thread
+        private volatile int targetWidth, targetHeight;
+        // Set when the target size differs enough from the allocated buffer; cleared when a new buffer is allocated
+        private volatile boolean reallocatePending;
+        private volatile int sourceWidth, sourceHeight;
+        private volatile int renderWidth, renderHeight;
+
+        public CanvasBufferFormatCallback(int maxRenderWidth, int maxRenderHeight) {
+            this.maxRenderWidth = maxRenderWidth;
+            this.maxRenderHeight = maxRenderHeight;
+        }
+
+        /**
+         * Updates the target size, and marks the video buffer for reallocation if it differs enough
+         */
+        void setTargetSize(int width, int height) {
+            this.targetWidth = width;
+            this.targetHeight = height;
+            if (sourceWidth == 0 || sourceHeight == 0) {
+                // No video format negotiated yet; the size will be used when it is
+                return;
+            }
+            int newWidth = getRenderWidth(sourceWidth, sourceHeight);
+            int newHeight = getRenderHeight(newWidth, sourceWidth, sourceHeight);
+            reallocatePending = Math.abs(newWidth - renderWidth) > renderWidth * REALLOCATE_THRESHOLD ||
+                    Math.abs(newHeight - renderHeight) > renderHeight * REALLOCATE_THRESHOLD;
+        }
+
+        private static int getRenderHeight(int renderWidth, int sourceWidth, int sourceHeight) {
+            return Math.max(1, (int) Math.round((double) renderWidth * sourceHeight / sourceWidth));
+        }
+
+        private int getRenderWidth(int sourceWidth, int sourceHeight) {
+            double scale = Math.min(1.0, Math.min(
+                    (double) maxRenderWidth / sourceWidth, (double) maxRenderHeight / sourceHeight));
+            if (targetWidth > 0 && targetHeight > 0) {
+                scale = Math.min(scale, Math.min(
+                        (double) targetWidth / sourceWidth, (double) targetHeight / sourceHeight));
+            }
+            return Math.max(1, (int) Math.round(sourceWidth * scale));
         }
 
         @Override
         public BufferFormat getBufferFormat(int sourceWidth, int sourceHeight) {
-            Rectangle2D visualBounds = new Rectangle2D(0, 0, renderWidth, renderHeight);
-//            Platform.runLater(() -> videoSourceRatioProperty.set((float) sourceHeight / (float) sourceWidth));
-            return new RV32BufferFormat((int) visualBounds.getWidth(), (int) visualBounds.getHeight());
+            this.sourceWidth = sourceWidth;
+            this.sourceHeight = sourceHeight;
+            this.renderWidth = getRenderWidth(sourceWidth, sourceHeight);
+            this.renderHeight = getRenderHeight(renderWidth, sourceWidth, sourceHeight);
+            this.reallocatePending = false;
+            log.debug(String.format("Source video is %dx%d, rendering at %dx%d",
+                    sourceWidth, sourceHeight, renderWidth, renderHeight));
+            Platform.runLater(() -> ratioProperty.set((float) sourceHeight / (float) sourceWidth));
+            return new RV32BufferFormat(renderWidth, renderHeight);
         }
     }
-}
\ No newline at end of file
+}
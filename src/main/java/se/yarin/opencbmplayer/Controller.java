@@ -1,5 +1,7 @@
 package se.yarin.opencbmplayer;
 
+import javafx.animation.Animation;
+import javafx.animation.PauseTransition;
 import javafx.application.Platform;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
@@ -8,25 +10,18 @@ import javafx.geometry.Insets;
 import javafx.geometry.Point2D;
 import javafx.scene.Node;
 import javafx.scene.Scene;
-import javafx.scene.canvas.Canvas;
-import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.control.*;
-import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
-import javafx.scene.image.WritableImage;
 import javafx.scene.input.MouseEvent;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.Pane;
 import javafx.scene.layout.TilePane;
 import javafx.scene.layout.VBox;
-import javafx.scene.paint.Color;
-import javafx.scene.paint.Paint;
-import javafx.scene.shape.Rectangle;
 import javafx.scene.text.Text;
 import javafx.scene.text.TextFlow;
-import javafx.scene.transform.Affine;
-import javafx.scene.transform.Transform;
+import javafx.stage.DirectoryChooser;
 import javafx.stage.FileChooser;
+import javafx.util.Duration;
 import javafx.util.StringConverter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -38,19 +33,32 @@ import se.yarin.cbhlib.media.ChessBaseMediaException;
 import se.yarin.cbhlib.media.ChessBaseMediaLoader;
 import se.yarin.chess.*;
 import se.yarin.chess.Date;
-import se.yarin.chess.annotations.Annotations;
 import se.yarin.chess.annotations.CommentaryAfterMoveAnnotation;
 import se.yarin.chess.annotations.CommentaryBeforeMoveAnnotation;
 import se.yarin.chess.annotations.SymbolAnnotation;
 import se.yarin.chess.timeline.GameEventException;
 import se.yarin.chess.timeline.NavigableGameModelTimeline;
 import se.yarin.chess.timeline.ReplaceAllEvent;
+import uk.co.caprica.vlcj.player.MediaPlayer;
+import uk.co.caprica.vlcj.player.MediaPlayerEventAdapter;
+import uk.co.caprica.vlcj.player.MediaPlayerEventListener;
 import uk.co.caprica.vlcj.player.direct.DirectMediaPlayer;
 
 import java.io.File;
 import java.io.IOException;
 import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.prefs.Preferences;
 
 import static se.yarin.chess.Chess.*;
 
@@ -58,20 +66,20 @@ public class Controller implements Initializable {
 
     private static final Logger log = LoggerFactory.getLogger(Controller.class);
 
-    private static Image chessImages = new Image("/images/pieces.png");
-    private static Image boardBackground = new Image("/images/wooden-background.jpg");
-
-    private final double BOARD_EDGE_SIZE = 0.15; // Size of board edge relative to the size of a square
-
-    private final double GRAPHICAL_ARROW_OPACITY = 0.6;
-    private final double GRAPHICAL_SQUARE_OPACITY = 0.4;
-    private final int GRAPHICAL_COLOR_INTENSITY = 220;
-    private final int VLC_RENDER_WIDTH = 300;
-    private final int VLC_RENDER_HEIGHT = 200;
-
-    private double squareSize, boardSize, xMargin, yMargin, edgeSize;
-
-    @FXML private Canvas board;
+    // Upper limit of the decoded video size; the actual size follows the size of the player pane
+    private final int VLC_MAX_RENDER_WIDTH = Integer.getInteger("opencbmplayer.maxVideoWidth", 1920);
+    private final int VLC_MAX_RENDER_HEIGHT = Integer.getInteger("opencbmplayer.maxVideoHeight", 1080);
+    private final int VLC_RESIZE_DEBOUNCE_MS = 300;
+    // Minimum time between two video seeks while the slider is dragged
+    private final int SCRUB_SEEK_INTERVAL_MS = 150;
+    // The number of lectures kept in memory; see LectureCache for why it's not a size
+    private final int LECTURE_CACHE_SIZE = Integer.getInteger("opencbmplayer.lectureCacheSize", 8);
+    // Set -Dopencbmplayer.copyVideoFrames=true to fall back to writing every frame through the image's PixelWriter
+    private final boolean VLC_PIXEL_BUFFER = !Boolean.getBoolean("opencbmplayer.copyVideoFrames");
+    // How comments in the notation are broken into rows, -Dopencbmplayer.lineBreaking=greedy or minimum_raggedness
+    private final LineBreaker.Mode NOTATION_LINE_BREAKING = lineBreakingMode(System.getProperty("opencbmplayer.lineBreaking"));
+
+    @FXML private BoardPane board;
     @FXML private TilePane leftPane;
     @FXML private SplitPane leftSplitter;
     @FXML private SplitPane rightSplitter;
@@ -84,11 +92,83 @@ public class Controller implements Initializable {
     @FXML private ImageView videoImage;
     @FXML private Pane playerHolder;
     @FXML private MovesPane movesPane;
+    private final MetricsHud metricsHud = new MetricsHud();
 
     private CanvasPlayerComponent mediaPlayerComponent;
-    private Timer videoTimer;
-
+    // An idle player where the next chapter of the playlist is opened in advance
+    private CanvasPlayerComponent prefetchPlayerComponent;
+    // The media file opened in the idle player; only set on the FX thread, once the current prefetch is done
+    private String prefetchedMediaFile;
+    private long prefetchGeneration;
+    // The timeline being parsed in advance, so that opening that file waits for it instead of parsing it again
+    private String prefetchParseFile;
+    private Future<LectureCache.Lecture> prefetchParse;
+    private final ExecutorService playerPrefetcher = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "playerPrefetch");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private Playlist playlist;
+    private final MediaPlayerEventListener playlistListener = new MediaPlayerEventAdapter() {
+        @Override
+        public void finished(MediaPlayer mediaPlayer) {
+            Platform.runLater(() -> nextChapter(null));
+        }
+    };
+    private PauseTransition videoResizeDebounce;
+    private PauseTransition scrubSeekThrottle;
+    // The time the slider has been dragged to but the video not yet seeked to, or -1
+    private int scrubTime = -1;
+    private VideoSynchronizer videoSynchronizer;
+
+    // The game model is changed while holding its lock, since the notation is laid out from a copy made on another thread
     private NavigableGameModelTimeline model = new NavigableGameModelTimeline();
+    private TimelineCursorIndex cursorIndex;
+    // The media file whose timeline is being loaded, or null if the timeline is loaded
+    private String loadingMediaFile;
+    private final LectureCache lectureCache = new LectureCache(LECTURE_CACHE_SIZE);
+    private final ExecutorService mediaLoader = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "mediaLoader");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final RedrawScheduler redrawScheduler = new RedrawScheduler();
+    private RedrawScheduler.Redraw headerRedraw;
+
+    private final Path LIBRARY_CATALOG_FILE = Paths.get(System.getProperty("user.home"), ".opencbmplayer", "library.catalog");
+    private final Preferences preferences = Preferences.userNodeForPackage(Controller.class);
+    private final ExecutorService libraryExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "libraryScanner");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Parses media files when scanning and indexing the library. Half of the cores are left for
+    // playing the video, and the common pool isn't used so other parallel work doesn't queue behind the parsing.
+    private final ForkJoinPool libraryPool = new ForkJoinPool(Math.max(1, Runtime.getRuntime().availableProcessors() / 2),
+            pool -> {
+                ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                thread.setName("libraryParser-" + thread.getPoolIndex());
+                return thread;
+            }, null, false);
+    private final LibraryScanner libraryScanner = new LibraryScanner(libraryPool);
+    private LibraryBrowser libraryBrowser;
+
+    private final Path POSITION_INDEX_DIR = Paths.get(System.getProperty("user.home"), ".opencbmplayer", "positions");
+    private PositionIndex positionIndex;
+    private PositionHitsWindow positionHitsWindow;
+    private volatile String currentMediaFile;
+
+    private final Path THUMBNAIL_CACHE_DIR = Paths.get(System.getProperty("user.home"), ".opencbmplayer", "thumbnails");
+    private ThumbnailExtractor thumbnailExtractor;
+    private final ExecutorService thumbnailExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "thumbnailExtractor");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // The thumbnails of the current media file, or null if there are none yet
+    private volatile ThumbnailStrip thumbnails;
+    private final ScrubPreview scrubPreview = new ScrubPreview();
 
     public Controller() {
     }
@@ -96,9 +176,13 @@ public class Controller implements Initializable {
     @Override
     public void initialize(URL location, ResourceBundle resources) {
         movesPane.setModel(model.getModel());
+        movesPane.setRedrawScheduler(redrawScheduler);
+        movesPane.setLineBreakingMode(NOTATION_LINE_BREAKING);
+        board.setRedrawScheduler(redrawScheduler);
+        headerRedraw = redrawScheduler.register("header", this::drawGameHeader);
 
-        board.widthProperty().bind(leftPane.widthProperty().subtract(20));
-        board.heightProperty().bind(leftPane.heightProperty().subtract(20));
+        board.prefWidthProperty().bind(leftPane.widthProperty().subtract(20));
+        board.prefHeightProperty().bind(leftPane.heightProperty().subtract(20));
 
 //        movePane.prefHeightProperty().bind(rightSplitter.heightProperty());
         videoBox.prefHeightProperty().bind(rightSplitter.heightProperty());
@@ -107,213 +191,116 @@ public class Controller implements Initializable {
         slider.prefWidthProperty().bind(videoBox.widthProperty().subtract(80));
         movesPane.prefWidthProperty().bind(rightSplitter.widthProperty());
 
-        board.widthProperty().addListener(observable -> drawBoard());
-        board.heightProperty().addListener(observable -> drawBoard());
+        videoSynchronizer = new VideoSynchronizer(this::syncToVideo, this::showCurrentTime);
+        Main.awaitLibVLC();
+        mediaPlayerComponent = new CanvasPlayerComponent(VLC_MAX_RENDER_WIDTH, VLC_MAX_RENDER_HEIGHT, VLC_PIXEL_BUFFER);
+        prefetchPlayerComponent = new CanvasPlayerComponent(VLC_MAX_RENDER_WIDTH, VLC_MAX_RENDER_HEIGHT, VLC_PIXEL_BUFFER);
+        thumbnailExtractor = new ThumbnailExtractor();
+        attachPlayer(mediaPlayerComponent);
 
-        videoImage.setImage(new WritableImage(VLC_RENDER_WIDTH, VLC_RENDER_HEIGHT));
-        mediaPlayerComponent = new CanvasPlayerComponent(VLC_RENDER_WIDTH, VLC_RENDER_HEIGHT, (WritableImage) videoImage.getImage());
+        // -Dopencbmplayer.hud=true shows the playback and rendering metrics on top of the video
+        playerHolder.getChildren().add(metricsHud);
+        metricsHud.setVisible(Boolean.getBoolean("opencbmplayer.hud"));
 
         playerHolder.prefWidthProperty().bind(videoBox.widthProperty());
         playerHolder.prefHeightProperty().bind(videoBox.heightProperty().subtract(40)); // Compensate for slider underneath
 
+        // Reallocating the video buffer is expensive, so wait until the resizing has settled
+        videoResizeDebounce = new PauseTransition(Duration.millis(VLC_RESIZE_DEBOUNCE_MS));
+        videoResizeDebounce.setOnFinished(event -> updateVideoRenderSize());
+
         playerHolder.widthProperty().addListener((observable, oldValue, newValue) -> {
             fitImageViewSize(newValue.floatValue(), (float) playerHolder.getHeight());
+            videoResizeDebounce.playFromStart();
         });
 
         playerHolder.heightProperty().addListener((observable, oldValue, newValue) -> {
             fitImageViewSize((float) playerHolder.getWidth(), newValue.floatValue());
+            videoResizeDebounce.playFromStart();
         });
 
-        mediaPlayerComponent.getVideoSourceRatioProperty().addListener((observable, oldValue, newValue) -> {
-            fitImageViewSize((float) playerHolder.getWidth(), (float) playerHolder.getHeight());
-        });
-
-
-//        reloadGame(null);
-//        reloadVideo();
-//        reloadManualGame();
-    }
-
-    private void initBoardSize() {
-        double w = board.getWidth(), h = board.getHeight();
-        squareSize = Math.min(w, h) / (8 + BOARD_EDGE_SIZE * 2);
-        boardSize = (8 + BOARD_EDGE_SIZE * 2) * squareSize;
-        xMargin = (w - boardSize) / 2;
-        yMargin = (h - boardSize) / 2;
-        edgeSize = BOARD_EDGE_SIZE * squareSize;
-    }
-
-    private Point2D getSquareMidpoint(int x, int y) {
-        return new Point2D(
-                xMargin + squareSize * (x + BOARD_EDGE_SIZE) + squareSize / 2,
-                yMargin + squareSize * (7 - y + BOARD_EDGE_SIZE) + squareSize / 2);
-    }
-
-    private Rectangle getSquareRect(int x, int y) {
-        return new Rectangle(
-                xMargin + squareSize * (x + BOARD_EDGE_SIZE),
-                yMargin + squareSize * (7 - y + BOARD_EDGE_SIZE),
-                squareSize,
-                squareSize);
-    }
+        for (CanvasPlayerComponent component : Arrays.asList(mediaPlayerComponent, prefetchPlayerComponent)) {
+            component.getVideoSourceRatioProperty().addListener((observable, oldValue, newValue) -> {
+                if (component == mediaPlayerComponent) {
+                    fitImageViewSize((float) playerHolder.getWidth(), (float) playerHolder.getHeight());
+                }
+            });
+        }
 
+        slider.setLabelFormatter(new StringConverter<Double>() {
+            @Override
+            public String toString(Double value) {
+                return String.format("%d:%02d", (int) Math.floor(value/1000)/60, (int) Math.floor(value/1000)%60);
+            }
 
-    private void drawBoard() {
-        log.debug("starting to draw board");
-        long start = System.currentTimeMillis();
-//        log.debug("rightSplitter width: " + rightSplitter.getWidth());
-//        log.debug("movePane width: " + movePane.getWidth());
-//        log.debug("moveBox width: " + moveBox.getWidth());
-
-        GraphicsContext gc = board.getGraphicsContext2D();
-
-        // Overwrite entire canvas is necessary when resizing
-        board.getParent().setStyle("-fx-background-color: darkgray;");
-        gc.setFill(Color.DARKGRAY);
-        gc.fillRect(0, 0, board.getWidth(), board.getHeight());
-
-        initBoardSize();
-
-//        gc.drawImage(boardBackground, 0, 0, 2000, 1500, xMargin, yMargin, boardSize, boardSize);
-        gc.drawImage(boardBackground, 0, 0, 3800, 2900, xMargin, yMargin, boardSize, boardSize);
-
-        gc.setFill(Color.rgb(128, 0, 0, 0.5));
-        gc.fillRect(xMargin, yMargin, boardSize, edgeSize);
-        gc.fillRect(xMargin, yMargin + boardSize - edgeSize, boardSize, edgeSize);
-        gc.fillRect(xMargin, yMargin + edgeSize, edgeSize, boardSize - edgeSize * 2);
-        gc.fillRect(xMargin + boardSize - edgeSize , yMargin + edgeSize, edgeSize, boardSize - edgeSize * 2);
-        gc.setLineWidth(1.0);
-        gc.setStroke(Color.rgb(64, 0, 0, 0.3));
-        gc.strokeRect(xMargin, yMargin, boardSize, boardSize);
-        gc.strokeRect(xMargin + edgeSize , yMargin + edgeSize, boardSize - 2 * edgeSize, boardSize - 2 * edgeSize);
-
-        for (int y = 0; y < 8; y++) {
-            for (int x = 0; x < 8; x++) {
-                Rectangle sq = getSquareRect(x, y);
-                if ((x+y)%2 == 0) {
-                    gc.setFill(Color.rgb(139, 69, 19, 0.6));
-//                    gc.setFill(Color.rgb(160, 82, 45, 0.6));
-                    gc.fillRect(sq.getX(), sq.getY(), sq.getWidth(), sq.getHeight());
-                }
+            @Override
+            public Double fromString(String string) {
+                throw new RuntimeException("Not needed");
             }
-        }
+        });
 
-        drawGraphicalSquares(gc);
+        scrubSeekThrottle = new PauseTransition(Duration.millis(SCRUB_SEEK_INTERVAL_MS));
+        scrubSeekThrottle.setOnFinished(event -> seekToScrubTime());
 
-        for (int y = 0; y < 8; y++) {
-            for (int x = 0; x < 8; x++) {
-                Stone piece = model.getModel().cursor().position().stoneAt(x, y);
-                drawPiece(gc, x, y, piece);
+        slider.valueProperty().addListener((observable, oldValue, newValue) -> {
+            log.debug("Value changing: " + slider.isValueChanging());
+            if (oldValue.equals(newValue)) return;
+            if (slider.isValueChanging()) {
+                scrubTo(newValue.intValue());
+                return;
             }
-        }
+            updateVideoPosition(newValue.intValue());
+        });
+        slider.valueChangingProperty().addListener((observable, wasChanging, changing) -> {
+            if (!changing) {
+                scrubPreview.hide();
+                scrubSeekThrottle.stop();
+                scrubTime = -1;
+                updateVideoPosition((int) slider.getValue());
+            }
+        });
+        slider.setOnMouseMoved(this::showScrubPreview);
+        slider.setOnMouseDragged(this::showScrubPreview);
+        slider.setOnMouseExited(event -> {
+            if (!slider.isValueChanging()) {
+                scrubPreview.hide();
+            }
+        });
 
-        drawGraphicalArrows(gc);
 
-        long stop = System.currentTimeMillis();
-        log.debug("done in " + (stop-start) + " ms");
+//        reloadGame(null);
+//        reloadVideo();
+//        reloadManualGame();
     }
 
-    private void drawGraphicalSquares(GraphicsContext gc) {
-        GraphicalSquaresAnnotation gsa = model.getModel().cursor().getAnnotations().getAnnotation(GraphicalSquaresAnnotation.class);
-        if (gsa == null) {
+    /**
+     * Shows the video frame and board position at the time under the mouse
+     */
+    private void showScrubPreview(MouseEvent event) {
+        if (slider.getWidth() <= 0 || slider.getMax() <= 0) {
             return;
         }
-        for (GraphicalSquaresAnnotation.Square gsq : gsa.getSquares()) {
-            int x = Chess.sqiToCol(gsq.getSqi()), y = Chess.sqiToRow(gsq.getSqi());
-            Paint p;
-            switch (gsq.getColor()) {
-                case GREEN:
-                    p = Color.rgb(255-GRAPHICAL_COLOR_INTENSITY, GRAPHICAL_COLOR_INTENSITY, 255-GRAPHICAL_COLOR_INTENSITY, GRAPHICAL_SQUARE_OPACITY);
-                    break;
-                case YELLOW:
-                    p = Color.rgb(GRAPHICAL_COLOR_INTENSITY, GRAPHICAL_COLOR_INTENSITY, 255-GRAPHICAL_COLOR_INTENSITY, GRAPHICAL_SQUARE_OPACITY);
-                    break;
-                case RED:
-                    p = Color.rgb(GRAPHICAL_COLOR_INTENSITY, 255-GRAPHICAL_COLOR_INTENSITY, 255-GRAPHICAL_COLOR_INTENSITY, GRAPHICAL_SQUARE_OPACITY);
-                    break;
-                default:
-                    continue;
-            }
-            gc.setFill(p);
-            Rectangle sq = getSquareRect(x, y);
-            gc.fillRect(sq.getX(), sq.getY(), sq.getWidth(), sq.getHeight());
-        }
+        double x = Math.max(0, Math.min(slider.getWidth(), event.getX()));
+        int time = (int) (slider.getMin() + x / slider.getWidth() * (slider.getMax() - slider.getMin()));
+        GameMovesModel.Node position = cursorIndex == null ? null : cursorIndex.getCursorAt(time);
+        Point2D anchor = slider.localToScreen(x, 0);
+        scrubPreview.show(slider, anchor.getX(), anchor.getY(), time, thumbnails, position);
     }
 
-    private void drawGraphicalArrows(GraphicsContext gc) {
-        Annotations annotations = model.getModel().cursor().getAnnotations();
-        log.info("# annotations: " + annotations.size());
-        GraphicalArrowsAnnotation gsa = annotations.getAnnotation(GraphicalArrowsAnnotation.class);
-        if (gsa == null) {
-            return;
+    private static LineBreaker.Mode lineBreakingMode(String name) {
+        if (name == null) {
+            return LineBreaker.Mode.GREEDY;
         }
-        for (GraphicalArrowsAnnotation.Arrow ga : gsa.getArrows()) {
-            int src = ga.getFromSqi(), dest = ga.getToSqi();
-            int x1 = Chess.sqiToCol(src), y1 = Chess.sqiToRow(src);
-            int x2 = Chess.sqiToCol(dest), y2 = Chess.sqiToRow(dest);
-            Paint p;
-            switch (ga.getColor()) {
-                case GREEN:
-                    p = Color.rgb(255-GRAPHICAL_COLOR_INTENSITY, GRAPHICAL_COLOR_INTENSITY, 255-GRAPHICAL_COLOR_INTENSITY, GRAPHICAL_ARROW_OPACITY);
-                    break;
-                case YELLOW:
-                    p = Color.rgb(GRAPHICAL_COLOR_INTENSITY, GRAPHICAL_COLOR_INTENSITY, 255-GRAPHICAL_COLOR_INTENSITY, GRAPHICAL_ARROW_OPACITY);
-                    break;
-                case RED:
-                    p = Color.rgb(GRAPHICAL_COLOR_INTENSITY, 255-GRAPHICAL_COLOR_INTENSITY, 255-GRAPHICAL_COLOR_INTENSITY, GRAPHICAL_ARROW_OPACITY);
-                    break;
-                default:
-                    continue;
-            }
-            gc.setFill(p);
-            Point2D p1 = getSquareMidpoint(x1, y1);
-            Point2D p2 = getSquareMidpoint(x2, y2);
-            drawArrow(gc, p1.getX(), p1.getY(), p2.getX(), p2.getY(), p);
+        try {
+            return LineBreaker.Mode.valueOf(name.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            log.warn("Unknown line breaking mode " + name + ", using greedy line breaking");
+            return LineBreaker.Mode.GREEDY;
         }
     }
 
-    void drawArrow(GraphicsContext gc, double x1, double y1, double x2, double y2, Paint color) {
-        gc.setFill(color);
-
-        double dx = x2 - x1, dy = y2 - y1;
-        double angle = Math.atan2(dy, dx);
-        double len = Math.sqrt(dx * dx + dy * dy);
-
-        Transform transform = Transform.translate(x1, y1);
-        transform = transform.createConcatenation(Transform.rotate(Math.toDegrees(angle), 0, 0));
-        gc.setTransform(new Affine(transform));
-
-        double arrowStart = squareSize * 0.05;
-        double arrowLength = len - squareSize * 0.2;
-        double arrowHeadWidth  = squareSize * 0.22;
-        double arrowHeadHeight = squareSize * 0.45;
-        double arrowHeadHeight2 = arrowHeadHeight * 0.8;
-        double arrowWidth = squareSize * 0.05;
-        gc.fillPolygon(
-                new double[] {arrowLength, arrowLength - arrowHeadHeight, arrowLength - arrowHeadHeight2, arrowStart, arrowStart, arrowLength - arrowHeadHeight2, arrowLength-arrowHeadHeight, arrowLength},
-                new double[] {0, -arrowHeadWidth, -arrowWidth, -arrowWidth, arrowWidth, arrowWidth, arrowHeadWidth, 0},
-                8);
-        gc.setTransform(new Affine());
-    }
-
-    private void drawPiece(GraphicsContext gc, int x, int y, Stone stone) {
-        if (stone.isNoStone()) return;
-
-        int sx = 0, sy = stone.toPlayer() == Player.WHITE ? 0 : 1;
-
-        switch (stone.toPiece()) {
-            case PAWN:   sx = 5; break;
-            case KNIGHT: sx = 1; break;
-            case BISHOP: sx = 2; break;
-            case ROOK:   sx = 0; break;
-            case QUEEN:  sx = 3; break;
-            case KING:   sx = 4; break;
-        }
-
-        Rectangle sq = getSquareRect(x, y);
-
-        gc.drawImage(chessImages, sx * 132, sy * 132, 132, 132,
-                sq.getX(), sq.getY(), sq.getWidth(), sq.getHeight());
+    private void drawBoard() {
+        board.setPosition(model.getModel().cursor());
     }
 
     private void drawGameHeader() {
@@ -438,26 +425,256 @@ public class Controller implements Initializable {
         });
     }
 
-    public void updateVideoPosition(int time) {
-        // TODO: This will be a race condition with the timer. It needs to be paused.
-        if (time < model.getCurrentTimestamp()) {
-            model.jumpTo(time);
-        } else {
-            model.playTo(time);
+    private void updateVideoRenderSize() {
+        double outputScale = 1.0;
+        if (playerHolder.getScene() != null && playerHolder.getScene().getWindow() != null) {
+            outputScale = playerHolder.getScene().getWindow().getOutputScaleX();
+        }
+        for (CanvasPlayerComponent component : Arrays.asList(mediaPlayerComponent, prefetchPlayerComponent)) {
+            component.setTargetSize(
+                    (int) Math.ceil(playerHolder.getWidth() * outputScale),
+                    (int) Math.ceil(playerHolder.getHeight() * outputScale));
+        }
+    }
+
+    /**
+     * Makes a player the one that is shown and that the board is synced to
+     */
+    private void attachPlayer(CanvasPlayerComponent component) {
+        mediaPlayerComponent = component;
+        videoImage.imageProperty().bind(component.imageProperty());
+        component.getMediaPlayer().addMediaPlayerEventListener(videoSynchronizer);
+        component.getMediaPlayer().addMediaPlayerEventListener(playlistListener);
+        fitImageViewSize((float) playerHolder.getWidth(), (float) playerHolder.getHeight());
+    }
+
+    /**
+     * Swaps in the idle player where the next chapter has been opened in advance
+     */
+    private void swapPlayers() {
+        CanvasPlayerComponent previous = mediaPlayerComponent;
+        previous.getMediaPlayer().removeMediaPlayerEventListener(videoSynchronizer);
+        previous.getMediaPlayer().removeMediaPlayerEventListener(playlistListener);
+        attachPlayer(prefetchPlayerComponent);
+        mediaPlayerComponent.getMediaPlayer().mute(false);
+        prefetchPlayerComponent = previous;
+        prefetchedMediaFile = null;
+        prefetchGeneration++;
+        playerPrefetcher.submit(() -> previous.getMediaPlayer().stop());
+    }
+
+    /**
+     * Opens the next chapter of the playlist in advance: the timeline is parsed into the lecture cache
+     * and the media is opened, paused and muted, in the idle player.
+     */
+    private void prefetchNextChapter() {
+        // Whatever the idle player had opened is being replaced; an earlier prefetch that is
+        // still running must not mark its file as prefetched when it's done
+        prefetchedMediaFile = null;
+        prefetchParseFile = null;
+        prefetchParse = null;
+        long generation = ++prefetchGeneration;
+        String next = playlist == null ? null : playlist.peekNext();
+        if (next == null) {
+            return;
+        }
+        File file = new File(next);
+        if (!lectureCache.contains(file)) {
+            prefetchParseFile = next;
+            prefetchParse = mediaLoader.submit(() -> {
+                try {
+                    NavigableGameModelTimeline timeline = ChessBaseMediaLoader.loadMedia(file);
+                    LectureCache.Lecture lecture = new LectureCache.Lecture(timeline, TimelineCursorIndex.build(timeline));
+                    lectureCache.put(file, lecture);
+                    log.info("Prefetched timeline of " + next);
+                    return lecture;
+                } catch (IOException | ChessBaseMediaException e) {
+                    log.warn("Failed to prefetch " + next, e);
+                    return null;
+                }
+            });
         }
+
+        CanvasPlayerComponent idle = prefetchPlayerComponent;
+        playerPrefetcher.submit(() -> {
+            DirectMediaPlayer mp = idle.getMediaPlayer();
+            mp.mute(true);
+            mp.prepareMedia(next);
+            // Starting and pausing decodes the first frame, so the swap shows video right away
+            mp.start();
+            mp.setPause(true);
+            Platform.runLater(() -> {
+                if (generation == prefetchGeneration) {
+                    prefetchedMediaFile = next;
+                }
+            });
+        });
+    }
+
+    /**
+     * Waits for the timeline parsed in advance by {@link #prefetchNextChapter()}
+     * @return the lecture, or null if there is none or it couldn't be parsed
+     */
+    private static LectureCache.Lecture getPrefetchedLecture(Future<LectureCache.Lecture> prefetched) {
+        if (prefetched == null) {
+            return null;
+        }
+        try {
+            return prefetched.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Plays all chapters in a directory, in order
+     */
+    public void openPlaylist(ActionEvent actionEvent) {
+        DirectoryChooser directoryChooser = new DirectoryChooser();
+        directoryChooser.setTitle("Open course directory");
+        File dir = directoryChooser.showDialog(playerHolder.getScene().getWindow());
+        if (dir == null) {
+            return;
+        }
+        Playlist playlist = Playlist.fromDirectory(dir);
+        if (playlist.isEmpty()) {
+            log.warn("No media files in " + dir);
+            return;
+        }
+        this.playlist = playlist;
+        nextChapter(actionEvent);
+    }
+
+    public void nextChapter(ActionEvent actionEvent) {
+        if (playlist == null) {
+            return;
+        }
+        String next = playlist.next();
+        if (next == null) {
+            return;
+        }
+        reloadVideo(next);
+    }
+
+    private void showCurrentTime(int time) {
         this.currentTime.setText(String.format("%d:%02d", time/1000/60, time/1000%60));
+    }
+
+    /**
+     * Applies the timeline events that are due at the given video time
+     */
+    private void syncToVideo(int time) {
+        // TODO: Also fix the fact that the user may have changed the model (selected move in particular) since last event was applied
+        PlayerEvents.TimelineApply event = new PlayerEvents.TimelineApply();
+        event.begin();
+        event.fromTime = model.getCurrentTimestamp();
+        int dueAt = model.getNextEventTimestamp();
+        int actionsApplied;
+        synchronized (model.getModel()) {
+            actionsApplied = model.playTo(time);
+        }
+        event.toTime = time;
+        event.eventsApplied = actionsApplied;
+        event.commit();
+        videoSynchronizer.setNextEventTimestamp(model.getNextEventTimestamp());
+        Metrics.get().timelinePlayed(actionsApplied);
+        if (actionsApplied > 0) {
+            Metrics.get().boardSynced(videoSynchronizer.getEstimatedTime() - dueAt);
+            drawBoard();
+            movesPane.requestDrawMoves();
+            headerRedraw.invalidate();
+            movesPane.selectPosition(model.getModel().cursor());
+        }
+    }
+
+    /**
+     * Updates the board to the time the slider is being dragged to. The timeline and the notation
+     * are left as they are, and the video is seeked at most every SCRUB_SEEK_INTERVAL_MS;
+     * everything is synced exactly when the slider is released.
+     */
+    private void scrubTo(int time) {
+        showCurrentTime(time);
+        if (cursorIndex != null) {
+            // The board redraws at most once per frame, however fast the slider moves
+            board.setPosition(cursorIndex.getCursorAt(time));
+        }
+        // Don't let the playing video move the timeline while dragging
+        videoSynchronizer.setNextEventTimestamp(Integer.MAX_VALUE);
+        scrubTime = time;
+        if (scrubSeekThrottle.getStatus() != Animation.Status.RUNNING) {
+            seekToScrubTime();
+        }
+    }
+
+    private void seekToScrubTime() {
+        if (scrubTime < 0) {
+            return;
+        }
+        DirectMediaPlayer mp = mediaPlayerComponent.getMediaPlayer();
+        if (!mp.isPlaying()) {
+            mp.start();
+        }
+        mediaPlayerComponent.seek(scrubTime);
+        videoSynchronizer.seeked(scrubTime);
+        scrubTime = -1;
+        scrubSeekThrottle.playFromStart();
+    }
+
+    public void updateVideoPosition(int time) {
+        PlayerEvents.Seek event = new PlayerEvents.Seek();
+        event.begin();
+        event.fromTime = videoSynchronizer.getEstimatedTime();
+        event.toTime = time;
+        showCurrentTime(time);
         DirectMediaPlayer mp = mediaPlayerComponent.getMediaPlayer();
 
         if (!mp.isPlaying()) {
             mp.start();
         }
-        mp.setTime(time);
+        mediaPlayerComponent.seek(time);
+        videoSynchronizer.seeked(time);
 
-        drawGameHeader();
-        movesPane.drawMoves();
+        event.timelineLoaded = loadingMediaFile == null;
+        if (event.timelineLoaded) {
+            // Otherwise the timeline is synced to the video when it has been loaded
+            syncTimelineTo(time);
+        }
+        event.commit();
+    }
+
+    /**
+     * Moves the timeline to the given time and redraws everything
+     */
+    private void syncTimelineTo(int time) {
+        PlayerEvents.TimelineApply event = new PlayerEvents.TimelineApply();
+        event.begin();
+        event.fromTime = model.getCurrentTimestamp();
+        event.toTime = time;
+        event.seek = true;
+        synchronized (model.getModel()) {
+            if (time < model.getCurrentTimestamp()) {
+                model.jumpTo(time);
+            } else {
+                model.playTo(time);
+            }
+        }
+        event.commit();
+        videoSynchronizer.setNextEventTimestamp(model.getNextEventTimestamp());
+
+        headerRedraw.invalidate();
+        movesPane.requestDrawMoves();
         drawBoard();
     }
 
+    /**
+     * Starts playing a media file. The timeline is loaded on a background thread while the video starts;
+     * the board is synced to the video as soon as the timeline is ready.
+     * The whole timeline is decoded before anything is shown: ChessBaseMediaLoader has no way of
+     * returning the events as the script-command stream is read.
+     */
     public void reloadVideo(String mediaFile) {
 //        String mediaFile = "/Users/yarin/chessbasemedia/mediafiles/TEXT/Ari Ziegler - French Defence/2.wmv";
 //        String mediaFile = "/Users/yarin/chessbasemedia/mediafiles/TEXT/Garry Kasparov - Queens Gambit/3.wmv";
@@ -466,71 +683,128 @@ public class Controller implements Initializable {
 //        String mediaFile = "/Users/yarin/chessbasemedia/mediafiles/HEADER/Simon Williams - Most Amazing Moves/Game 15 Spassky-Fischer/Game 15 Spassky-Fischer000.wmv";
 //        String mediaFile = "/Users/yarin/chessbasemedia/mediafiles/CBM168/Festival Biel 2015.html/Biel 2015 round 04 Navara-Wojtaszek.wmv";
 //        String mediaFile = "/Users/yarin/chessbasemedia/mediafiles/CBM168/168Tactics.html/CBM168Taktikeng2/rn1qr3zp3kp2z2p1pR1Qz4P2pz3P3Pz6P1zP5PKz8 w - - 0 1x0y0v4u0.wmv";
-        mediaPlayerComponent.getMediaPlayer().prepareMedia(mediaFile);
-        try {
-            this.model = ChessBaseMediaLoader.loadMedia(new File(mediaFile));
-
-            int duration = this.model.getLastEventTimestamp();
-            this.slider.setMax(duration);
-            this.slider.setMajorTickUnit(120*1000);
-            this.slider.setShowTickMarks(true);
-            this.slider.setShowTickLabels(true);
-            this.slider.setLabelFormatter(new StringConverter<Double>() {
-                @Override
-                public String toString(Double value) {
-                    return String.format("%d:%02d", (int) Math.floor(value/1000)/60, (int) Math.floor(value/1000)%60);
-                }
+        updateVideoRenderSize();
+        currentMediaFile = mediaFile;
+        loadingMediaFile = mediaFile;
+        thumbnails = null;
+
+        // Show an empty board until the timeline is loaded
+        this.model = new NavigableGameModelTimeline();
+        this.cursorIndex = null;
+        if (this.model.getModel().cursor() == null)
+            this.model.getModel().setCursor(this.model.getModel().moves().root());
+        movesPane.setModel(this.model.getModel());
+        videoSynchronizer.setNextEventTimestamp(Integer.MAX_VALUE);
+        drawBoard();
+        headerRedraw.invalidate();
 
-                @Override
-                public Double fromString(String string) {
-                    throw new RuntimeException("Not needed");
+        File file = new File(mediaFile);
+        LectureCache.Lecture cached = lectureCache.get(file);
+        if (cached != null) {
+            log.info(String.format("Reusing cached timeline of %s (cache hit rate %.0f%%, %d lectures cached)",
+                    mediaFile, lectureCache.getHitRate() * 100, lectureCache.size()));
+        } else {
+            Future<LectureCache.Lecture> prefetched = mediaFile.equals(prefetchParseFile) ? prefetchParse : null;
+            mediaLoader.submit(() -> {
+                long start = System.currentTimeMillis();
+                try {
+                    // The prefetch was queued before this task on the same thread, so it's done by now
+                    LectureCache.Lecture lecture = getPrefetchedLecture(prefetched);
+                    if (lecture == null) {
+                        NavigableGameModelTimeline timeline = ChessBaseMediaLoader.loadMedia(file);
+                        lecture = new LectureCache.Lecture(timeline, TimelineCursorIndex.build(timeline));
+                        lectureCache.put(file, lecture);
+                    }
+                    LectureCache.Lecture loaded = lecture;
+                    long stop = System.currentTimeMillis();
+                    log.info(String.format("Loaded timeline of %s in %d ms", mediaFile, stop - start));
+                    Platform.runLater(() -> timelineLoaded(mediaFile, loaded.getTimeline(), loaded.getCursorIndex()));
+                } catch (IOException | ChessBaseMediaException e) {
+                    log.error("Failed to load the media " + mediaFile, e);
+                    Platform.runLater(() -> {
+                        if (mediaFile.equals(loadingMediaFile)) {
+                            loadingMediaFile = null;
+                        }
+                    });
                 }
             });
+        }
 
-            this.slider.valueProperty().addListener((observable, oldValue, newValue) -> {
-                log.debug("Value changing: " + this.slider.isValueChanging());
-                if (oldValue.equals(newValue)) return;
-                updateVideoPosition(newValue.intValue());
-            });
+        if (mediaFile.equals(prefetchedMediaFile)) {
+            swapPlayers();
+        } else {
+            mediaPlayerComponent.getMediaPlayer().prepareMedia(mediaFile);
+        }
+        updateVideoPosition(0);
+        if (cached != null) {
+            timelineLoaded(mediaFile, cached.getTimeline(), cached.getCursorIndex());
+        }
 
+        if (playlist != null && !mediaFile.equals(playlist.getCurrent())) {
+            // A file outside the playlist was opened
+            playlist = null;
+        }
+        prefetchNextChapter();
+    }
+
+    private void timelineLoaded(String mediaFile, NavigableGameModelTimeline timeline, TimelineCursorIndex index) {
+        if (!mediaFile.equals(loadingMediaFile)) {
+            // Another file was opened while this one was loading
+            return;
+        }
+        loadingMediaFile = null;
+
+        this.model = timeline;
+        this.cursorIndex = index;
+        synchronized (this.model.getModel()) {
+            // A cached timeline may still be copied by a layout started when it was last shown
             if (this.model.getModel().cursor() == null)
                 this.model.getModel().setCursor(this.model.getModel().moves().root());
-        } catch (IOException | ChessBaseMediaException e) {
-            throw new RuntimeException("Failed to load the media", e);
         }
+        movesPane.setModel(this.model.getModel());
 
-        // TODO: Use MediaPlayerEventListener instead of the timer below
-        //mediaPlayerComponent.getMediaPlayer().addMediaPlayerEventListener();
+        this.slider.setMax(this.model.getLastEventTimestamp());
+        this.slider.setMajorTickUnit(120*1000);
+        this.slider.setShowTickMarks(true);
+        this.slider.setShowTickLabels(true);
 
-        this.videoTimer = new Timer("videoTimer");
-        this.videoTimer.scheduleAtFixedRate(new TimerTask() {
-            @Override
-            public void run() {
-                int curTime = (int) mediaPlayerComponent.getMediaPlayer().getTime();
-                log.info("Video at " + curTime);
-
-                Platform.runLater(() -> {
-                    // TODO: This is duplicated code
-                    Controller.this.currentTime.setText(String.format("%d:%02d", curTime/1000/60, curTime/1000%60));
-//                    Controller.this.slider.setValue(curTime);
-                });
-
-                // TODO: Ugly, fix
-                // TODO: Also fix the fact that the user may have changed the model (selected move in particular) since last event was applied
-                int actionsApplied = model.playTo(curTime);
-                if (actionsApplied > 0) {
-                    Platform.runLater(() -> {
-                        drawBoard();
-                        movesPane.drawMoves();
-                        drawGameHeader();
-                        log.info("selecting position " + model.getModel().cursor().lastMove() + " is valid " + model.getModel().cursor().isValid());
-                        movesPane.selectPosition(model.getModel().cursor());
-                    });
+        // Any seeks done while loading have already been applied to the video
+        syncTimelineTo(videoSynchronizer.getEstimatedTime());
+        loadThumbnails(mediaFile, index);
+    }
+
+    /**
+     * Loads the thumbnails of a media file from the disk cache, or extracts them in the background.
+     * The thumbnails can be shown while they are extracted; extraction stops when another file is opened.
+     */
+    private void loadThumbnails(String mediaFile, TimelineCursorIndex index) {
+        int duration = Math.max(this.model.getLastEventTimestamp(),
+                (int) mediaPlayerComponent.getMediaPlayer().getLength());
+        int[] eventTimestamps = index.getEventTimestamps();
+        thumbnailExecutor.submit(() -> {
+            File file = new File(mediaFile);
+            long lastModified = file.lastModified();
+            Path cacheFile = THUMBNAIL_CACHE_DIR.resolve(String.format("%08x%08x.thumbs",
+                    mediaFile.hashCode(), Long.hashCode(lastModified ^ file.length())));
+            ThumbnailStrip strip = ThumbnailStrip.load(cacheFile, mediaFile, lastModified);
+            if (strip == null) {
+                strip = new ThumbnailStrip(mediaFile, lastModified);
+            }
+            if (!mediaFile.equals(currentMediaFile)) {
+                return;
+            }
+            thumbnails = strip;
+            int[] times = thumbnailExtractor.getThumbnailTimes(duration, eventTimestamps);
+            int before = strip.size();
+            thumbnailExtractor.extract(strip, times, () -> thumbnails == null || !mediaFile.equals(thumbnails.getMediaFile()));
+            if (strip.size() > before) {
+                try {
+                    strip.save(cacheFile);
+                } catch (IOException e) {
+                    log.warn("Failed to save the thumbnails of " + mediaFile, e);
                 }
             }
-        }, 500, 500);
-
-        updateVideoPosition(0);
+        });
     }
 
     public void reloadManualGame() {
@@ -546,12 +820,16 @@ public class Controller implements Initializable {
                         GraphicalAnnotationColor.GREEN, 1, 2))
         ));
         this.model = new NavigableGameModelTimeline();
+        this.cursorIndex = null;
+        this.currentMediaFile = null;
+        this.loadingMediaFile = null;
         this.model.addEvent(0, new ReplaceAllEvent(start));
         try {
             this.model.applyNextEvent();
         } catch (GameEventException e) {
             e.printStackTrace();
         }
+        movesPane.setModel(this.model.getModel());
     }
 
     public void openMediaFile(ActionEvent actionEvent) {
@@ -565,6 +843,133 @@ public class Controller implements Initializable {
             reloadVideo(file.getAbsoluteFile().toString());
         }
     }
+
+    public void openLibrary(ActionEvent actionEvent) {
+        String root = preferences.get("libraryRoot", null);
+        if (root == null || !new File(root).isDirectory() || libraryBrowser != null) {
+            // Choosing the library again from an open browser switches to another directory
+            DirectoryChooser directoryChooser = new DirectoryChooser();
+            directoryChooser.setTitle("Select media library directory");
+            if (root != null && new File(root).isDirectory()) {
+                directoryChooser.setInitialDirectory(new File(root));
+            }
+            File dir = directoryChooser.showDialog(playerHolder.getScene().getWindow());
+            if (dir == null) {
+                if (libraryBrowser != null) {
+                    libraryBrowser.show();
+                }
+                return;
+            }
+            root = dir.getAbsolutePath();
+            preferences.put("libraryRoot", root);
+        }
+
+        if (libraryBrowser == null) {
+            libraryBrowser = new LibraryBrowser(playerHolder.getScene().getWindow(), this::reloadVideo);
+        }
+        libraryBrowser.show();
+        scanLibrary(root);
+    }
+
+    /**
+     * Shows the stored catalog immediately and then rescans the library in the background.
+     * Only files that have been added or modified since the last scan are parsed.
+     */
+    private void scanLibrary(String root) {
+        libraryBrowser.setStatus("Scanning " + root + "...");
+        libraryExecutor.submit(() -> {
+            LibraryCatalog catalog = LibraryCatalog.load(LIBRARY_CATALOG_FILE, root);
+            Platform.runLater(() -> libraryBrowser.setCatalog(catalog));
+            try {
+                LibraryCatalog updated = libraryScanner.scan(catalog);
+                updated.save(LIBRARY_CATALOG_FILE);
+                Platform.runLater(() -> libraryBrowser.setCatalog(updated));
+
+                if (!updated.hasSameFiles(catalog) || !Files.isDirectory(POSITION_INDEX_DIR)) {
+                    Platform.runLater(() -> libraryBrowser.setStatus("Indexing positions..."));
+                    // Written to a new file; the index in use is swapped on the FX thread where it's searched
+                    PositionIndex index = PositionIndex.open(PositionIndex.build(updated.getEntries(), POSITION_INDEX_DIR, libraryPool));
+                    Platform.runLater(() -> {
+                        setPositionIndex(index);
+                        libraryBrowser.setCatalog(updated);
+                    });
+                }
+            } catch (IOException | RuntimeException e) {
+                log.warn("Failed to scan the media library " + root, e);
+                Platform.runLater(() -> libraryBrowser.setStatus("Failed to scan " + root + ": " + e.getMessage()));
+            }
+        });
+    }
+
+    /**
+     * Releases the native media players. Called on the FX thread when the application exits.
+     */
+    public void shutdown() {
+        // The thumbnail grabber must not be released while an extraction is still using it
+        thumbnailExecutor.shutdownNow();
+        try {
+            if (!thumbnailExecutor.awaitTermination(1, TimeUnit.SECONDS)) {
+                log.warn("Thumbnail extraction did not stop, not releasing its media player");
+                thumbnailExtractor = null;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            thumbnailExtractor = null;
+        }
+        mediaPlayerComponent.release();
+        prefetchPlayerComponent.release();
+        if (thumbnailExtractor != null) {
+            thumbnailExtractor.release();
+        }
+    }
+
+    private void setPositionIndex(PositionIndex index) {
+        if (positionIndex != null) {
+            try {
+                positionIndex.close();
+            } catch (IOException e) {
+                log.warn("Failed to close the position index", e);
+            }
+        }
+        positionIndex = index;
+        PositionIndex.deleteOlderGenerations(POSITION_INDEX_DIR, index.getFile());
+    }
+
+    /**
+     * Finds all moments in the library where the current board position is shown
+     */
+    public void findPosition(ActionEvent actionEvent) {
+        if (positionHitsWindow == null) {
+            positionHitsWindow = new PositionHitsWindow(playerHolder.getScene().getWindow(), this::openPositionHit);
+        }
+        if (positionIndex == null) {
+            try {
+                PositionIndex index = PositionIndex.openLatest(POSITION_INDEX_DIR);
+                if (index != null) {
+                    setPositionIndex(index);
+                }
+            } catch (IOException e) {
+                log.warn("Failed to open the position index", e);
+            }
+        }
+        if (positionIndex == null) {
+            positionHitsWindow.showMessage("The positions are indexed when the library is scanned");
+            return;
+        }
+        GameMovesModel.Node cursor = model.getModel().cursor();
+        if (cursor == null) {
+            return;
+        }
+        positionHitsWindow.show(positionIndex.find(PositionHasher.hash(cursor.position())));
+    }
+
+    private void openPositionHit(PositionIndex.Hit hit) {
+        if (!hit.getPath().equals(currentMediaFile)) {
+            reloadVideo(hit.getPath());
+        }
+        // If the timeline is still loading, the board is synced to this time once it's ready
+        updateVideoPosition(hit.getTimestamp());
+    }
 /*
     public void reloadGame(ActionEvent actionEvent) {
         //        String cbhFile = "/Users/yarin/Dropbox/ChessBase/My Games/My White Openings.cbh";
@@ -0,0 +1,83 @@
+package se.yarin.opencbmplayer;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Event;
+import jdk.jfr.Recording;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.ParseException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * A continuous flight recording kept in a ring buffer, started with --jfr. Only the last few minutes are kept;
+ * they are written to disk on demand, with Ctrl+Shift+J in the player or with
+ * {@code jcmd <pid> JFR.dump name=opencbmplayer}.
+ */
+public class FlightRecording {
+    private static final Logger log = LoggerFactory.getLogger(FlightRecording.class);
+
+    private static final Duration MAX_AGE = Duration.ofMinutes(Long.getLong("opencbmplayer.jfrMaxAgeMinutes", 5));
+    private static final long MAX_SIZE = Long.getLong("opencbmplayer.jfrMaxSizeMB", 100) * 1024 * 1024;
+    private static final Path DUMP_DIR = Paths.get(System.getProperty("user.home"), ".opencbmplayer", "recordings");
+
+    private static Recording recording;
+
+    private FlightRecording() {
+    }
+
+    /**
+     * Starts the recording, with the default JDK settings and all player events enabled
+     */
+    public static synchronized void start() {
+        if (recording != null) {
+            return;
+        }
+        try {
+            recording = new Recording(Configuration.getConfiguration("default"));
+        } catch (IOException | ParseException e) {
+            log.warn("Failed to read the default flight recorder settings", e);
+            recording = new Recording();
+        }
+        for (Class<?> event : PlayerEvents.class.getClasses()) {
+            recording.enable(event.asSubclass(Event.class));
+        }
+        recording.setName("opencbmplayer");
+        recording.setToDisk(true);
+        recording.setMaxAge(MAX_AGE);
+        recording.setMaxSize(MAX_SIZE);
+        recording.start();
+        log.info(String.format("Flight recording started, keeping the last %d minutes", MAX_AGE.toMinutes()));
+    }
+
+    public static synchronized boolean isRunning() {
+        return recording != null;
+    }
+
+    /**
+     * Writes what's currently in the ring buffer to a new file; the recording continues
+     * @return the file, or null if no recording is running or it couldn't be written
+     */
+    public static synchronized Path dump() {
+        if (recording == null) {
+            return null;
+        }
+        Path file = DUMP_DIR.resolve("opencbmplayer-" +
+                LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss")) + ".jfr");
+        try {
+            Files.createDirectories(DUMP_DIR);
+            recording.dump(file);
+            log.info("Flight recording dumped to " + file);
+            return file;
+        } catch (IOException e) {
+            log.warn("Failed to dump the flight recording to " + file, e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package se.yarin.opencbmplayer;
+
+/**
+ * Entry point when running from a plain class path (e.g. with the class data sharing archive),
+ * where the JavaFX launcher refuses to start a main class that extends Application
+ */
+public class Launcher {
+    public static void main(String[] args) {
+        Main.main(args);
+    }
+}
@@ -0,0 +1,129 @@
+package se.yarin.opencbmplayer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se.yarin.chess.timeline.NavigableGameModelTimeline;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Keeps recently opened lectures in memory so that switching back to one doesn't require parsing it again.
+ * Lectures are keyed by path and modification time, and the least recently used ones are evicted
+ * when there are more than the maximum number of lectures.
+ * <p>
+ * The cache is bounded by the number of lectures, not by their size: the events of a timeline can't be
+ * enumerated, and events that replace the whole game carry entire game models, so a size estimate could be
+ * off by orders of magnitude. The limit must be chosen with the largest lectures in mind.
+ */
+public class LectureCache {
+    private static final Logger log = LoggerFactory.getLogger(LectureCache.class);
+
+    /**
+     * A loaded lecture: the timeline together with its cursor index
+     */
+    public static class Lecture {
+        private final NavigableGameModelTimeline timeline;
+        private final TimelineCursorIndex cursorIndex;
+
+        public Lecture(NavigableGameModelTimeline timeline, TimelineCursorIndex cursorIndex) {
+            this.timeline = timeline;
+            this.cursorIndex = cursorIndex;
+        }
+
+        public NavigableGameModelTimeline getTimeline() {
+            return timeline;
+        }
+
+        public TimelineCursorIndex getCursorIndex() {
+            return cursorIndex;
+        }
+    }
+
+    private static class Key {
+        private final String path;
+        private final long lastModified;
+        private final long fileSize;
+
+        Key(File file) {
+            this.path = file.getAbsolutePath();
+            this.lastModified = file.lastModified();
+            this.fileSize = file.length();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return lastModified == key.lastModified && fileSize == key.fileSize && path.equals(key.path);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(path, lastModified, fileSize);
+        }
+    }
+
+    private final int maxLectures;
+    private final LinkedHashMap<Key, Lecture> lectures = new LinkedHashMap<>(16, 0.75f, true);
+    private long hits, misses;
+
+    /**
+     * @param maxLectures the maximum number of cached lectures; at least one is always kept
+     */
+    public LectureCache(int maxLectures) {
+        this.maxLectures = maxLectures;
+    }
+
+    /**
+     * @return the cached lecture, or null if the file isn't cached or has been modified since it was cached
+     */
+    public synchronized Lecture get(File file) {
+        Lecture lecture = lectures.get(new Key(file));
+        if (lecture == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return lecture;
+    }
+
+    /**
+     * Checks if a file is cached, without affecting the hit rate or the eviction order
+     */
+    public synchronized boolean contains(File file) {
+        return lectures.containsKey(new Key(file));
+    }
+
+    public synchronized void put(File file, Lecture lecture) {
+        lectures.put(new Key(file), lecture);
+
+        // Evict the least recently used lectures, but always keep the one just added
+        Iterator<Map.Entry<Key, Lecture>> it = lectures.entrySet().iterator();
+        while (lectures.size() > Math.max(1, maxLectures)) {
+            Map.Entry<Key, Lecture> eldest = it.next();
+            it.remove();
+            log.debug("Evicted " + eldest.getKey().path + " from the lecture cache");
+        }
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized double getHitRate() {
+        return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+    }
+
+    public synchronized int size() {
+        return lectures.size();
+    }
+}
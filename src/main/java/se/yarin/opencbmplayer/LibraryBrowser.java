@@ -0,0 +1,125 @@
+package se.yarin.opencbmplayer;
+
+import javafx.beans.property.ReadOnlyObjectWrapper;
+import javafx.beans.property.ReadOnlyStringWrapper;
+import javafx.collections.FXCollections;
+import javafx.collections.transformation.FilteredList;
+import javafx.collections.transformation.SortedList;
+import javafx.scene.Scene;
+import javafx.scene.control.*;
+import javafx.scene.input.KeyCode;
+import javafx.scene.layout.BorderPane;
+import javafx.stage.Stage;
+import javafx.stage.Window;
+
+import java.io.File;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * A window listing all media files in the library catalog. Filtering is done on the
+ * headers stored in the catalog, so no media files need to be parsed.
+ */
+public class LibraryBrowser {
+    private final Stage stage = new Stage();
+    private final TextField filterField = new TextField();
+    private final TableView<LibraryEntry> table = new TableView<>();
+    private final Label statusLabel = new Label();
+    private final Consumer<String> onOpen;
+
+    private FilteredList<LibraryEntry> filteredEntries;
+
+    /**
+     * @param owner the main window
+     * @param onOpen called with the path of the media file to open
+     */
+    public LibraryBrowser(Window owner, Consumer<String> onOpen) {
+        this.onOpen = onOpen;
+
+        filterField.setPromptText("Filter on players, event, ECO, annotator or file name");
+        filterField.textProperty().addListener((observable, oldValue, newValue) -> applyFilter());
+
+        table.getColumns().add(column("White", 140, LibraryEntry::getWhite));
+        table.getColumns().add(column("Black", 140, LibraryEntry::getBlack));
+        table.getColumns().add(column("Event", 180, LibraryEntry::getEvent));
+        table.getColumns().add(column("ECO", 50, LibraryEntry::getEco));
+        table.getColumns().add(column("Annotator", 140, LibraryEntry::getAnnotator));
+        TableColumn<LibraryEntry, Integer> durationColumn = new TableColumn<>("Length");
+        durationColumn.setPrefWidth(60);
+        durationColumn.setCellValueFactory(cell -> new ReadOnlyObjectWrapper<>(cell.getValue().getDuration()));
+        durationColumn.setCellFactory(column -> new TableCell<LibraryEntry, Integer>() {
+            @Override
+            protected void updateItem(Integer time, boolean empty) {
+                super.updateItem(time, empty);
+                setText(empty || time == null ? null : String.format("%d:%02d", time/1000/60, time/1000%60));
+            }
+        });
+        table.getColumns().add(durationColumn);
+        table.getColumns().add(column("File", 300, entry -> new File(entry.getPath()).getName()));
+
+        table.setRowFactory(tableView -> {
+            TableRow<LibraryEntry> row = new TableRow<>();
+            row.setOnMouseClicked(event -> {
+                if (event.getClickCount() == 2 && !row.isEmpty()) {
+                    open(row.getItem());
+                }
+            });
+            return row;
+        });
+        table.setOnKeyPressed(event -> {
+            if (event.getCode() == KeyCode.ENTER && table.getSelectionModel().getSelectedItem() != null) {
+                open(table.getSelectionModel().getSelectedItem());
+            }
+        });
+
+        BorderPane root = new BorderPane(table, filterField, null, statusLabel, null);
+        stage.setTitle("Media library");
+        stage.initOwner(owner);
+        stage.setScene(new Scene(root, 900, 500));
+    }
+
+    private static TableColumn<LibraryEntry, String> column(String title, double width,
+                                                           Function<LibraryEntry, String> value) {
+        TableColumn<LibraryEntry, String> column = new TableColumn<>(title);
+        column.setPrefWidth(width);
+        column.setCellValueFactory(cell -> new ReadOnlyStringWrapper(value.apply(cell.getValue())));
+        return column;
+    }
+
+    /**
+     * Shows the entries of the catalog. Must be called on the FX thread.
+     */
+    public void setCatalog(LibraryCatalog catalog) {
+        filteredEntries = new FilteredList<>(FXCollections.observableArrayList(catalog.getEntries()));
+        SortedList<LibraryEntry> sortedEntries = new SortedList<>(filteredEntries);
+        sortedEntries.comparatorProperty().bind(table.comparatorProperty());
+        table.setItems(sortedEntries);
+        applyFilter();
+    }
+
+    /**
+     * Shows a status message instead of the number of matching files, e.g. while the library is scanned
+     */
+    public void setStatus(String status) {
+        statusLabel.setText(status);
+    }
+
+    public void show() {
+        stage.show();
+        stage.toFront();
+        filterField.requestFocus();
+    }
+
+    private void applyFilter() {
+        if (filteredEntries == null) {
+            return;
+        }
+        String filter = filterField.getText();
+        filteredEntries.setPredicate(filter == null || filter.trim().isEmpty() ? null : entry -> entry.matches(filter));
+        statusLabel.setText(String.format("%d of %d media files", filteredEntries.size(), filteredEntries.getSource().size()));
+    }
+
+    private void open(LibraryEntry entry) {
+        onOpen.accept(entry.getPath());
+    }
+}
@@ -0,0 +1,136 @@
+package se.yarin.opencbmplayer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * The catalog of all media files in the library, persisted in a compact binary file
+ * so the library can be browsed without parsing any of the media files.
+ */
+public class LibraryCatalog {
+    private static final Logger log = LoggerFactory.getLogger(LibraryCatalog.class);
+
+    private static final int MAGIC = 0x43424d4c; // "CBML"
+    private static final int VERSION = 2;
+
+    private final String root;
+    // All entries, including the files that couldn't be parsed
+    private final Map<String, LibraryEntry> entries;
+    private final List<LibraryEntry> parsedEntries;
+
+    public LibraryCatalog(String root, Collection<LibraryEntry> entries) {
+        this.root = root;
+        this.entries = new TreeMap<>();
+        for (LibraryEntry entry : entries) {
+            this.entries.put(entry.getPath(), entry);
+        }
+        List<LibraryEntry> parsed = new ArrayList<>(this.entries.size());
+        for (LibraryEntry entry : this.entries.values()) {
+            if (!entry.isFailed()) {
+                parsed.add(entry);
+            }
+        }
+        this.parsedEntries = Collections.unmodifiableList(parsed);
+    }
+
+    public static LibraryCatalog empty(String root) {
+        return new LibraryCatalog(root, Collections.emptyList());
+    }
+
+    /**
+     * @return the directory that was scanned
+     */
+    public String getRoot() {
+        return root;
+    }
+
+    /**
+     * @return the entry of the file, which may be a failed entry, or null if the file isn't in the catalog
+     */
+    public LibraryEntry get(String path) {
+        return entries.get(path);
+    }
+
+    /**
+     * @return the entries of all files that could be parsed
+     */
+    public Collection<LibraryEntry> getEntries() {
+        return parsedEntries;
+    }
+
+    public int size() {
+        return parsedEntries.size();
+    }
+
+    /**
+     * @return true if the catalogs contain the same files, with the same modification times
+     */
+    public boolean hasSameFiles(LibraryCatalog other) {
+        if (entries.size() != other.entries.size()) {
+            return false;
+        }
+        for (LibraryEntry entry : entries.values()) {
+            LibraryEntry otherEntry = other.get(entry.getPath());
+            if (otherEntry == null || !otherEntry.isUpToDate(entry.getLastModified(), entry.getFileSize())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Loads a catalog. If the file doesn't exist, or is in an unknown format,
+     * an empty catalog is returned so that the library is rescanned from scratch.
+     */
+    public static LibraryCatalog load(Path file, String root) {
+        if (!Files.exists(file)) {
+            return empty(root);
+        }
+        long start = System.currentTimeMillis();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                log.warn("Ignoring library catalog " + file + " in an unknown format");
+                return empty(root);
+            }
+            String catalogRoot = in.readUTF();
+            if (!catalogRoot.equals(root)) {
+                return empty(root);
+            }
+            int count = in.readInt();
+            List<LibraryEntry> entries = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                entries.add(LibraryEntry.read(in));
+            }
+            long stop = System.currentTimeMillis();
+            log.info(String.format("Loaded library catalog with %d entries in %d ms", count, stop - start));
+            return new LibraryCatalog(root, entries);
+        } catch (IOException e) {
+            log.warn("Failed to read the library catalog " + file, e);
+            return empty(root);
+        }
+    }
+
+    /**
+     * Saves the catalog. The file is replaced atomically so a crash never leaves a truncated catalog.
+     */
+    public void save(Path file) throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(root);
+            out.writeInt(entries.size());
+            for (LibraryEntry entry : entries.values()) {
+                entry.write(out);
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
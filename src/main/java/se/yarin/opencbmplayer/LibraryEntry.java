@@ -0,0 +1,146 @@
+package se.yarin.opencbmplayer;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * An immutable summary of a media file in the library, as stored in the {@link LibraryCatalog}
+ */
+public class LibraryEntry {
+    private final String path;
+    private final long lastModified;
+    private final long fileSize;
+    private final String white;
+    private final String black;
+    private final String event;
+    private final String eco;
+    private final String annotator;
+    private final int duration;
+    private final int eventCount;
+    private final boolean failed;
+
+    // Lower case concatenation of all text fields, used for filtering
+    private final String searchText;
+
+    public LibraryEntry(String path, long lastModified, long fileSize,
+                        String white, String black, String event, String eco, String annotator,
+                        int duration, int eventCount) {
+        this(path, lastModified, fileSize, white, black, event, eco, annotator, duration, eventCount, false);
+    }
+
+    private LibraryEntry(String path, long lastModified, long fileSize,
+                         String white, String black, String event, String eco, String annotator,
+                         int duration, int eventCount, boolean failed) {
+        this.path = path;
+        this.lastModified = lastModified;
+        this.fileSize = fileSize;
+        this.white = white == null ? "" : white;
+        this.black = black == null ? "" : black;
+        this.event = event == null ? "" : event;
+        this.eco = eco == null ? "" : eco;
+        this.annotator = annotator == null ? "" : annotator;
+        this.duration = duration;
+        this.eventCount = eventCount;
+        this.failed = failed;
+        this.searchText = String.join("\n", path, this.white, this.black, this.event, this.eco, this.annotator)
+                .toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Creates an entry for a file that couldn't be parsed, so it's not parsed again until it's modified
+     */
+    public static LibraryEntry failed(String path, long lastModified, long fileSize) {
+        return new LibraryEntry(path, lastModified, fileSize, null, null, null, null, null, 0, 0, true);
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    public String getWhite() {
+        return white;
+    }
+
+    public String getBlack() {
+        return black;
+    }
+
+    public String getEvent() {
+        return event;
+    }
+
+    public String getEco() {
+        return eco;
+    }
+
+    public String getAnnotator() {
+        return annotator;
+    }
+
+    /**
+     * @return the timestamp of the last event in the timeline, in milliseconds
+     */
+    public int getDuration() {
+        return duration;
+    }
+
+    public int getEventCount() {
+        return eventCount;
+    }
+
+    /**
+     * @return true if the file couldn't be parsed; such entries have no headers
+     */
+    public boolean isFailed() {
+        return failed;
+    }
+
+    /**
+     * @return true if the file is unchanged since the entry was created
+     */
+    public boolean isUpToDate(long lastModified, long fileSize) {
+        return this.lastModified == lastModified && this.fileSize == fileSize;
+    }
+
+    /**
+     * Checks if all words in the filter occur somewhere in the path or the headers, ignoring case
+     */
+    public boolean matches(String filter) {
+        for (String word : filter.toLowerCase(Locale.ROOT).split("\\s+")) {
+            if (!word.isEmpty() && !searchText.contains(word)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    void write(DataOutput out) throws IOException {
+        out.writeUTF(path);
+        out.writeLong(lastModified);
+        out.writeLong(fileSize);
+        out.writeUTF(white);
+        out.writeUTF(black);
+        out.writeUTF(event);
+        out.writeUTF(eco);
+        out.writeUTF(annotator);
+        out.writeInt(duration);
+        out.writeInt(eventCount);
+        out.writeBoolean(failed);
+    }
+
+    static LibraryEntry read(DataInput in) throws IOException {
+        return new LibraryEntry(in.readUTF(), in.readLong(), in.readLong(),
+                in.readUTF(), in.readUTF(), in.readUTF(), in.readUTF(), in.readUTF(),
+                in.readInt(), in.readInt(), in.readBoolean());
+    }
+}
@@ -0,0 +1,158 @@
+package se.yarin.opencbmplayer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se.yarin.cbhlib.media.ChessBaseMediaException;
+import se.yarin.cbhlib.media.ChessBaseMediaLoader;
+import se.yarin.chess.GameHeaderModel;
+import se.yarin.chess.timeline.GameEventException;
+import se.yarin.chess.timeline.NavigableGameModelTimeline;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Scans a directory tree for media files and parses their timelines in parallel.
+ * Files that are unchanged since the previous scan are taken from the previous catalog.
+ */
+public class LibraryScanner {
+    private static final Logger log = LoggerFactory.getLogger(LibraryScanner.class);
+
+    private final ForkJoinPool pool;
+
+    /**
+     * @param pool the pool the media files are parsed in
+     */
+    public LibraryScanner(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Scans the root directory of a catalog
+     * @param previous the result of the previous scan, or an empty catalog
+     * @return a new catalog with all media files currently in the directory tree
+     */
+    public LibraryCatalog scan(LibraryCatalog previous) throws IOException {
+        long start = System.currentTimeMillis();
+
+        List<Path> files;
+        try (Stream<Path> stream = Files.walk(new File(previous.getRoot()).toPath())) {
+            files = stream
+                    .filter(Files::isRegularFile)
+                    .filter(path -> path.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".wmv"))
+                    .collect(Collectors.toList());
+        }
+
+        List<LibraryEntry> entries = new ArrayList<>(files.size());
+        List<Path> changed = new ArrayList<>();
+        for (Path file : files) {
+            LibraryEntry entry = previous.get(file.toString());
+            if (entry != null && entry.isUpToDate(file.toFile().lastModified(), file.toFile().length())) {
+                entries.add(entry);
+            } else {
+                changed.add(file);
+            }
+        }
+
+        entries.addAll(pool.invoke(new ParseTask(changed, 0, changed.size())));
+
+        long stop = System.currentTimeMillis();
+        log.info(String.format("Scanned %d media files in %d ms, %d of them parsed",
+                files.size(), stop - start, changed.size()));
+        return new LibraryCatalog(previous.getRoot(), entries);
+    }
+
+    /**
+     * Parses a single media file
+     * @return the entry; if the file couldn't be parsed, a failed entry so it's not parsed again until it changes
+     */
+    static LibraryEntry parse(Path path) {
+        File file = path.toFile();
+        // Get these before parsing so a file modified while being parsed is parsed again next time
+        long lastModified = file.lastModified(), fileSize = file.length();
+        try {
+            return summarize(path, ChessBaseMediaLoader.loadMedia(file), lastModified, fileSize);
+        } catch (IOException | ChessBaseMediaException e) {
+            log.warn("Failed to parse " + path + ": " + e.getMessage());
+        } catch (RuntimeException e) {
+            // A corrupt file must not abort the whole scan
+            log.warn("Failed to parse " + path, e);
+        }
+        return LibraryEntry.failed(path.toString(), lastModified, fileSize);
+    }
+
+    private static LibraryEntry summarize(Path path, NavigableGameModelTimeline timeline,
+                                          long lastModified, long fileSize) {
+        // A lecture may show several games; use the header of the first one.
+        // The header model is updated by later events, so the fields are copied when it's first seen.
+        timeline.jumpTo(0);
+        String white = null, black = null, event = null, eco = null, annotator = null;
+        boolean headerFound = false;
+        int eventCount = 0;
+        while (timeline.getNextEventTimestamp() != Integer.MAX_VALUE) {
+            try {
+                timeline.applyNextEvent();
+            } catch (GameEventException e) {
+                log.debug("Failed to apply timeline event in " + path, e);
+            }
+            eventCount++;
+            GameHeaderModel header = timeline.getModel().header();
+            if (!headerFound && !(isEmpty(header.getWhite()) && isEmpty(header.getBlack()) && isEmpty(header.getEvent()))) {
+                white = header.getWhite();
+                black = header.getBlack();
+                event = header.getEvent();
+                eco = header.getEco() == null ? null : header.getEco().toString();
+                annotator = header.getAnnotator();
+                headerFound = true;
+            }
+        }
+
+        return new LibraryEntry(path.toString(), lastModified, fileSize,
+                white, black, event, eco, annotator,
+                timeline.getLastEventTimestamp(), eventCount);
+    }
+
+    private static boolean isEmpty(String s) {
+        return s == null || s.isEmpty();
+    }
+
+    /**
+     * Parses a range of files, splitting the range in halves until there is a single file left
+     */
+    private static class ParseTask extends RecursiveTask<List<LibraryEntry>> {
+        private final List<Path> files;
+        private final int from, to;
+
+        ParseTask(List<Path> files, int from, int to) {
+            this.files = files;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected List<LibraryEntry> compute() {
+            List<LibraryEntry> entries = new ArrayList<>();
+            if (to - from <= 1) {
+                if (to > from) {
+                    entries.add(parse(files.get(from)));
+                }
+                return entries;
+            }
+            int mid = (from + to) / 2;
+            ParseTask left = new ParseTask(files, from, mid);
+            left.fork();
+            entries.addAll(new ParseTask(files, mid, to).compute());
+            entries.addAll(left.join());
+            return entries;
+        }
+    }
+}
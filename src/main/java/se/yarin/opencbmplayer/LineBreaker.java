@@ -0,0 +1,144 @@
+package se.yarin.opencbmplayer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Breaks a text into lines at spaces. Every word is measured once and the width of a line
+ * is derived from the cumulative word widths, so the work is linear in the length of the text.
+ */
+public class LineBreaker {
+
+    public enum Mode {
+        /**
+         * Put as many words as possible on each line
+         */
+        GREEDY,
+        /**
+         * Minimize the sum of the squared free space at the end of each line, except the last one.
+         * This gives a more even right margin.
+         */
+        MINIMUM_RAGGEDNESS
+    }
+
+    public static class Line {
+        private final String text;
+        private final double width;
+
+        public Line(String text, double width) {
+            this.text = text;
+            this.width = width;
+        }
+
+        public String getText() {
+            return text;
+        }
+
+        public double getWidth() {
+            return width;
+        }
+    }
+
+    private final Mode mode;
+
+    public LineBreaker(Mode mode) {
+        this.mode = mode;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Breaks a text into lines. A line always contains at least one word, even if it doesn't fit.
+     * @param text the text to break
+     * @param measure determines the width of a word
+     * @param firstLineWidth the available width on the first line
+     * @param lineWidth the available width on all subsequent lines
+     * @return the lines, with their widths
+     */
+    public List<Line> breakLines(String text, ToDoubleFunction<String> measure,
+                                 double firstLineWidth, double lineWidth) {
+        String[] words = text.split(" ", -1);
+        int n = words.length;
+        double spaceWidth = measure.applyAsDouble(" ");
+
+        // cumulative[i] is the width of the first i words, excluding the spaces
+        double[] cumulative = new double[n + 1];
+        for (int i = 0; i < n; i++) {
+            cumulative[i + 1] = cumulative[i] + measure.applyAsDouble(words[i]);
+        }
+
+        int[] breaks = mode == Mode.GREEDY ?
+                breakGreedy(cumulative, spaceWidth, firstLineWidth, lineWidth) :
+                breakMinimumRaggedness(cumulative, spaceWidth, firstLineWidth, lineWidth);
+
+        List<Line> lines = new ArrayList<>();
+        int start = 0;
+        for (int end : breaks) {
+            StringBuilder sb = new StringBuilder();
+            for (int i = start; i < end; i++) {
+                if (i > start) sb.append(' ');
+                sb.append(words[i]);
+            }
+            lines.add(new Line(sb.toString(), width(cumulative, spaceWidth, start, end)));
+            start = end;
+        }
+        return lines;
+    }
+
+    // The width of the words [start, end) including the spaces between them
+    private static double width(double[] cumulative, double spaceWidth, int start, int end) {
+        return cumulative[end] - cumulative[start] + spaceWidth * (end - start - 1);
+    }
+
+    // Returns the (exclusive) end word index of every line
+    private int[] breakGreedy(double[] cumulative, double spaceWidth, double firstLineWidth, double lineWidth) {
+        int n = cumulative.length - 1;
+        List<Integer> breaks = new ArrayList<>();
+        int start = 0;
+        while (start < n) {
+            double available = start == 0 ? firstLineWidth : lineWidth;
+            int end = start + 1;
+            while (end < n && width(cumulative, spaceWidth, start, end + 1) <= available) {
+                end++;
+            }
+            breaks.add(end);
+            start = end;
+        }
+        return breaks.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private int[] breakMinimumRaggedness(double[] cumulative, double spaceWidth, double firstLineWidth, double lineWidth) {
+        int n = cumulative.length - 1;
+        // cost[i] is the minimum cost of breaking the first i words, with the last line ending before word i
+        double[] cost = new double[n + 1];
+        int[] lineStart = new int[n + 1];
+        for (int end = 1; end <= n; end++) {
+            cost[end] = Double.POSITIVE_INFINITY;
+            // Try all possible starts of the line ending at end, from the closest one;
+            // stop as soon as the line gets too wide, which bounds the work per word
+            for (int start = end - 1; start >= 0; start--) {
+                double available = start == 0 ? firstLineWidth : lineWidth;
+                double free = available - width(cumulative, spaceWidth, start, end);
+                if (free < 0 && start < end - 1) {
+                    break;
+                }
+                double lineCost = end == n ? 0 : Math.max(free, 0) * Math.max(free, 0);
+                if (cost[start] + lineCost < cost[end]) {
+                    cost[end] = cost[start] + lineCost;
+                    lineStart[end] = start;
+                }
+            }
+        }
+
+        List<Integer> breaks = new ArrayList<>();
+        for (int end = n; end > 0; end = lineStart[end]) {
+            breaks.add(end);
+        }
+        Collections.reverse(breaks);
+        return breaks.stream().mapToInt(Integer::intValue).toArray();
+    }
+}
@@ -0,0 +1,21 @@
+package se.yarin.opencbmplayer;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A map that is bounded to a maximum number of entries, evicting the least recently used entry
+ */
+public class LruCache<K, V> extends LinkedHashMap<K, V> {
+    private final int maxEntries;
+
+    public LruCache(int maxEntries) {
+        super(16, 0.75f, true);
+        this.maxEntries = maxEntries;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+        return size() > maxEntries;
+    }
+}
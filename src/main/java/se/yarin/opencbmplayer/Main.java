@@ -1,25 +1,72 @@
 package se.yarin.opencbmplayer;
 
+import com.sun.jna.NativeLibrary;
 import de.codecentric.centerdevice.javafxsvg.SvgImageLoaderFactory;
 import javafx.application.Application;
 import javafx.application.Platform;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Parent;
 import javafx.scene.Scene;
+import javafx.scene.input.KeyCode;
+import javafx.scene.input.KeyCodeCombination;
+import javafx.scene.input.KeyCombination;
 import javafx.stage.Stage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import uk.co.caprica.vlcj.discovery.NativeDiscovery;
+import uk.co.caprica.vlcj.discovery.NativeDiscoveryStrategy;
+import uk.co.caprica.vlcj.runtime.RuntimeUtil;
 import uk.co.caprica.vlcj.version.LibVlcVersion;
 import uk.co.caprica.vlcj.version.Version;
 
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+import java.util.prefs.Preferences;
+
 public class Main extends Application {
 
     private static final Logger log = LoggerFactory.getLogger(Main.class);
 
+    private static final String LIBVLC_PATH_KEY = "libvlcPath";
+
+    // Completes when libvlc has been located; the media players can't be created before that
+    private static final CompletableFuture<Void> libVlcReady = new CompletableFuture<>();
+
+    private final ExecutorService startupExecutor = Executors.newFixedThreadPool(2, r -> {
+        Thread thread = new Thread(r, "startup");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private CompletableFuture<Void> imagesReady;
+
     private static void setupLibVLC() throws RuntimeException {
+        // Try the location found the last time first, since a full discovery is slow
+        Preferences preferences = Preferences.userNodeForPackage(Main.class);
+        String cachedPath = preferences.get(LIBVLC_PATH_KEY, null);
+        if (cachedPath != null && new File(cachedPath).isDirectory()) {
+            NativeLibrary.addSearchPath(RuntimeUtil.getLibVlcLibraryName(), cachedPath);
+            try {
+                Version version = LibVlcVersion.getVersion();
+                log.info("Found libvlc version " + version + " in cached location " + cachedPath);
+                return;
+            } catch (Throwable e) {
+                log.info("libvlc is no longer in " + cachedPath + ", searching for it");
+                preferences.remove(LIBVLC_PATH_KEY);
+            }
+        }
 
-        new NativeDiscovery().discover();
+        new NativeDiscovery() {
+            @Override
+            protected void onFound(String path, NativeDiscoveryStrategy strategy) {
+                preferences.put(LIBVLC_PATH_KEY, path);
+            }
+        }.discover();
 
         // discovery()'s method return value is WRONG on Linux
         try {
@@ -31,26 +78,93 @@ public class Main extends Application {
         }
     }
 
+    /**
+     * Waits until libvlc has been located. Called by the controller before it creates the media players,
+     * so that the FXML can be loaded while the discovery is still running.
+     */
+    static void awaitLibVLC() {
+        libVlcReady.join();
+    }
+
+    private static long sinceJvmStart() {
+        return System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime();
+    }
+
+    private <T> T timed(String phase, Supplier<T> task) {
+        long start = System.currentTimeMillis();
+        T result = task.get();
+        long stop = System.currentTimeMillis();
+        log.info(String.format("Startup phase '%s' took %d ms on %s", phase, stop - start, Thread.currentThread().getName()));
+        return result;
+    }
+
     @Override
-    public void start(Stage primaryStage) throws Exception{
+    public void init() {
+        log.info("Initializing, " + sinceJvmStart() + " ms since JVM start");
         SvgImageLoaderFactory.install();
+        Metrics.register();
+        if (getParameters().getRaw().contains("--jfr")) {
+            FlightRecording.start();
+        }
 
+        // Locating libvlc and decoding the big images are independent of each other and of the FXML parsing
+        CompletableFuture.runAsync(() -> timed("libvlc discovery", () -> {
+            setupLibVLC();
+            return null;
+        }), startupExecutor).whenComplete((result, e) -> {
+            if (e != null) {
+                libVlcReady.completeExceptionally(e);
+            } else {
+                libVlcReady.complete(null);
+            }
+        });
+        imagesReady = CompletableFuture.runAsync(() -> timed("image decoding", () -> {
+            BoardPane.preloadImages();
+            return null;
+        }), startupExecutor);
+    }
 
-        setupLibVLC();
+    @Override
+    public void start(Stage primaryStage) throws Exception{
         log.info("Starting OpenCBMPlayer");
 
-
-        Parent root = FXMLLoader.load(getClass().getResource("/fxml/main.fxml"));
+        FXMLLoader loader = new FXMLLoader(getClass().getResource("/fxml/main.fxml"));
+        Parent root = timed("FXML loading", () -> {
+            try {
+                return loader.<Parent>load();
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        });
+        Controller controller = loader.getController();
 
         primaryStage.setTitle("ChessBase Media Player (Proof of Concept)");
-        primaryStage.setScene(new Scene(root, 800, 600));
+        Scene scene = new Scene(root, 800, 600);
+        if (FlightRecording.isRunning()) {
+            // Saves the last minutes of the flight recording, e.g. right after a hiccup
+            scene.getAccelerators().put(
+                    new KeyCodeCombination(KeyCode.J, KeyCombination.SHORTCUT_DOWN, KeyCombination.SHIFT_DOWN),
+                    () -> CompletableFuture.runAsync(FlightRecording::dump));
+        }
+        primaryStage.setScene(scene);
 
-        primaryStage.setOnCloseRequest(event -> {
-            Platform.exit();
-            System.exit(0);
-        });
+        primaryStage.setOnCloseRequest(event -> exit(controller));
 
+        imagesReady.join();
         primaryStage.show();
+        log.info("Window shown " + sinceJvmStart() + " ms after JVM start");
+        startupExecutor.shutdown();
+
+        if (Boolean.getBoolean("opencbmplayer.exitAfterStartup")) {
+            // Used for the training run when creating the class data sharing archive
+            Platform.runLater(() -> exit(controller));
+        }
+    }
+
+    private static void exit(Controller controller) {
+        controller.shutdown();
+        Platform.exit();
+        System.exit(0);
     }
 
 
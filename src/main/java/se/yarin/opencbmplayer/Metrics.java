@@ -0,0 +1,151 @@
+package se.yarin.opencbmplayer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and histograms of what happens on the playback and rendering paths, so it can be told
+ * whether stutter comes from the video, the board or the notation. Recording is cheap and can be
+ * done from any thread. The metrics are registered as an MXBean and shown by the {@link MetricsHud}.
+ */
+public class Metrics implements MetricsMXBean {
+    private static final Logger log = LoggerFactory.getLogger(Metrics.class);
+
+    private static final Metrics instance = new Metrics();
+
+    private final LongAdder framesReceived = new LongAdder();
+    private final LongAdder framesDisplayed = new LongAdder();
+    private final LongAdder framesDropped = new LongAdder();
+    // From a frame being decoded until it's uploaded on the FX thread
+    private final Histogram fxQueueLatency = new Histogram();
+    private final Histogram frameUpload = new Histogram();
+    private final Histogram boardDraw = new Histogram();
+    private final Histogram notationLayout = new Histogram();
+    private final Histogram notationApply = new Histogram();
+    private final Histogram eventsPerPlayTo = new Histogram();
+    // How late the board was updated compared to the timestamp of the event, in video time; early counts as 0
+    private final Histogram syncDrift = new Histogram();
+
+    private Metrics() {
+    }
+
+    public static Metrics get() {
+        return instance;
+    }
+
+    /**
+     * Makes the metrics available through the platform MBean server
+     */
+    public static void register() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(instance,
+                    new ObjectName("se.yarin.opencbmplayer:type=Metrics"));
+        } catch (JMException e) {
+            log.warn("Failed to register the metrics MBean", e);
+        }
+    }
+
+    private static long micros(long nanos) {
+        return nanos / 1000;
+    }
+
+    public void frameReceived() {
+        framesReceived.increment();
+    }
+
+    public void frameDropped() {
+        framesDropped.increment();
+    }
+
+    public void frameDisplayed(long queuedNanos, long uploadNanos) {
+        framesDisplayed.increment();
+        fxQueueLatency.record(micros(queuedNanos));
+        frameUpload.record(micros(uploadNanos));
+    }
+
+    public void boardDrawn(long nanos) {
+        boardDraw.record(micros(nanos));
+    }
+
+    public void notationLaidOut(long nanos) {
+        notationLayout.record(micros(nanos));
+    }
+
+    public void notationApplied(long nanos) {
+        notationApply.record(micros(nanos));
+    }
+
+    public void timelinePlayed(int eventsApplied) {
+        eventsPerPlayTo.record(eventsApplied);
+    }
+
+    public void boardSynced(int driftMillis) {
+        syncDrift.record(driftMillis);
+    }
+
+    @Override
+    public long getFramesReceived() {
+        return framesReceived.sum();
+    }
+
+    @Override
+    public long getFramesDisplayed() {
+        return framesDisplayed.sum();
+    }
+
+    @Override
+    public long getFramesDropped() {
+        return framesDropped.sum();
+    }
+
+    @Override
+    public Histogram.Snapshot getFxQueueLatencyMicros() {
+        return fxQueueLatency.snapshot();
+    }
+
+    @Override
+    public Histogram.Snapshot getFrameUploadMicros() {
+        return frameUpload.snapshot();
+    }
+
+    @Override
+    public Histogram.Snapshot getBoardDrawMicros() {
+        return boardDraw.snapshot();
+    }
+
+    @Override
+    public Histogram.Snapshot getNotationLayoutMicros() {
+        return notationLayout.snapshot();
+    }
+
+    @Override
+    public Histogram.Snapshot getNotationApplyMicros() {
+        return notationApply.snapshot();
+    }
+
+    @Override
+    public Histogram.Snapshot getEventsPerPlayTo() {
+        return eventsPerPlayTo.snapshot();
+    }
+
+    @Override
+    public Histogram.Snapshot getSyncDriftMillis() {
+        return syncDrift.snapshot();
+    }
+
+    @Override
+    public void reset() {
+        framesReceived.reset();
+        framesDisplayed.reset();
+        framesDropped.reset();
+        for (Histogram histogram : new Histogram[] { fxQueueLatency, frameUpload, boardDraw,
+                notationLayout, notationApply, eventsPerPlayTo, syncDrift }) {
+            histogram.reset();
+        }
+    }
+}
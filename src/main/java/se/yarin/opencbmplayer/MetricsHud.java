@@ -0,0 +1,47 @@
+package se.yarin.opencbmplayer;
+
+import javafx.animation.Animation;
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
+import javafx.scene.control.Label;
+import javafx.util.Duration;
+
+/**
+ * An overlay showing the current metrics, refreshed a couple of times per second while it is visible
+ */
+public class MetricsHud extends Label {
+    private final int REFRESH_INTERVAL_MS = 500;
+
+    private final Timeline refresher = new Timeline(new KeyFrame(Duration.millis(REFRESH_INTERVAL_MS), event -> refresh()));
+
+    public MetricsHud() {
+        setStyle("-fx-background-color: rgba(0, 0, 0, 0.6); -fx-text-fill: #9f9; -fx-font-family: monospace; -fx-padding: 4;");
+        setMouseTransparent(true);
+        refresher.setCycleCount(Animation.INDEFINITE);
+        setVisible(false);
+        visibleProperty().addListener((observable, oldValue, visible) -> {
+            if (visible) {
+                refresh();
+                refresher.play();
+            } else {
+                refresher.stop();
+            }
+        });
+    }
+
+    private void refresh() {
+        Metrics metrics = Metrics.get();
+        setText(String.format("frames    %d received, %d displayed, %d dropped%n" +
+                        "fx queue  %s us%n" +
+                        "upload    %s us%n" +
+                        "board     %s us%n" +
+                        "layout    %s us%n" +
+                        "apply     %s us%n" +
+                        "events    %s per playTo%n" +
+                        "drift     %s ms",
+                metrics.getFramesReceived(), metrics.getFramesDisplayed(), metrics.getFramesDropped(),
+                metrics.getFxQueueLatencyMicros(), metrics.getFrameUploadMicros(), metrics.getBoardDrawMicros(),
+                metrics.getNotationLayoutMicros(), metrics.getNotationApplyMicros(),
+                metrics.getEventsPerPlayTo(), metrics.getSyncDriftMillis()));
+    }
+}
@@ -0,0 +1,28 @@
+package se.yarin.opencbmplayer;
+
+/**
+ * The playback and rendering metrics as seen through JMX, as se.yarin.opencbmplayer:type=Metrics
+ */
+public interface MetricsMXBean {
+    long getFramesReceived();
+
+    long getFramesDisplayed();
+
+    long getFramesDropped();
+
+    Histogram.Snapshot getFxQueueLatencyMicros();
+
+    Histogram.Snapshot getFrameUploadMicros();
+
+    Histogram.Snapshot getBoardDrawMicros();
+
+    Histogram.Snapshot getNotationLayoutMicros();
+
+    Histogram.Snapshot getNotationApplyMicros();
+
+    Histogram.Snapshot getEventsPerPlayTo();
+
+    Histogram.Snapshot getSyncDriftMillis();
+
+    void reset();
+}
@@ -5,8 +5,8 @@ import se.yarin.chess.GameMovesModel;
 import se.yarin.chess.Move;
 
 public class MoveLabel extends Label {
-    private Move move;
-    private GameMovesModel.Node node;
+    private final Move move;
+    private final GameMovesModel.Node node;
 
     public MoveLabel(Move move, GameMovesModel.Node node) {
         this.move = move;
@@ -1,65 +1,133 @@
 package se.yarin.opencbmplayer;
 
-import javafx.fxml.FXML;
+import javafx.application.Platform;
+import javafx.beans.property.ObjectProperty;
+import javafx.beans.property.SimpleObjectProperty;
+import javafx.beans.value.ChangeListener;
+import javafx.beans.value.WeakChangeListener;
 import javafx.geometry.Insets;
 import javafx.scene.Node;
-import javafx.scene.Scene;
 import javafx.scene.control.Control;
 import javafx.scene.control.Label;
-import javafx.scene.control.ScrollPane;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
+import javafx.scene.control.Skin;
+import javafx.scene.control.SkinBase;
 import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
 import javafx.scene.input.MouseEvent;
 import javafx.scene.layout.HBox;
-import javafx.scene.layout.VBox;
-import javafx.scene.text.Text;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import se.yarin.cbhlib.annotations.CriticalPositionAnnotation;
-import se.yarin.cbhlib.annotations.GraphicalArrowsAnnotation;
-import se.yarin.cbhlib.annotations.GraphicalSquaresAnnotation;
-import se.yarin.chess.*;
-import se.yarin.chess.annotations.Annotations;
-import se.yarin.chess.annotations.CommentaryAfterMoveAnnotation;
-import se.yarin.chess.annotations.CommentaryBeforeMoveAnnotation;
-import se.yarin.chess.annotations.SymbolAnnotation;
-
-import java.net.URL;
-import java.util.*;
+import se.yarin.chess.GameMovesModel;
+import se.yarin.chess.NavigableGameModel;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class MovesPane extends Control {
     private static final Logger log = LoggerFactory.getLogger(MovesPane.class);
 
     private final double MOVE_BOX_RIGHT_MARGIN = 25; // Compensate for the padding and some extra space to be safe
+    private final double SCROLLBAR_WIDTH = 20;
+    private final int LABEL_WIDTH_CACHE_SIZE = 20000;
+
+    private final Image graphicalAnnotationImage = new Image("images/graphical-annotation.png", 16, 16, true, true);
 
     private NavigableGameModel model = new NavigableGameModel();
 
-    private ScrollPane movePane;
-    private VBox moveBox;
+    // Only the rows that are visible in the list view are materialized as nodes
+    private ListView<NotationRow> moveBox;
+    // The cells highlight the selected move by observing this, so the list view is free to discard cells
+    private final ObjectProperty<GameMovesModel.Node> selectedNode = new SimpleObjectProperty<>();
 
-    private double currentRowWidth;
-    private HBox currentRow;
-    private boolean pullDownLastIfEOL;
-    private HashMap<String, Double> labelWidthCache = new HashMap<>(); // TODO: Make real cache
+    // The notation is laid out on a background thread; only the latest requested layout is applied
+    private final ExecutorService layoutExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "notationLayout");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private Future<?> pendingLayout;
+    private volatile long layoutVersion;
 
-    private Map<GameMovesModel.Node, MoveLabel> positionLabelMap = new HashMap<>();
+    private RedrawScheduler.Redraw redraw;
 
-    public MovesPane() {
-        movePane = new ScrollPane();
-        movePane.setId("movePane");
-        movePane.setVbarPolicy(ScrollPane.ScrollBarPolicy.ALWAYS);
-        movePane.setHbarPolicy(ScrollPane.ScrollBarPolicy.NEVER);
+    private LineBreaker lineBreaker = new LineBreaker(LineBreaker.Mode.GREEDY);
+    private final TextMeasurer textMeasurer = new TextMeasurer("/styles/styles.css", "moveBox", LABEL_WIDTH_CACHE_SIZE);
 
-        moveBox = new VBox();
+    public MovesPane() {
+        moveBox = new ListView<>();
         moveBox.setId("moveBox");
-        movePane.setContent(moveBox);
+        moveBox.setFocusTraversable(false);
+        moveBox.setCellFactory(listView -> new NotationRowCell());
 
-        moveBox.prefWidthProperty().bind(movePane.widthProperty().subtract(20)); // Compensate for vertical scrollbar
-        moveBox.widthProperty().addListener(observable -> drawMoves());
+        moveBox.widthProperty().addListener(observable -> requestDrawMoves());
+    }
+
+    /**
+     * Makes the notation redraw through the scheduler, at most once per frame, instead of immediately
+     */
+    public void setRedrawScheduler(RedrawScheduler scheduler) {
+        this.redraw = scheduler.register("moves", this::drawMoves);
+    }
+
+    /**
+     * Requests the notation to be redrawn on the next frame, or immediately if there is no scheduler
+     */
+    public void requestDrawMoves() {
+        if (redraw != null) {
+            redraw.invalidate();
+        } else {
+            drawMoves();
+        }
     }
 
+    @Override
+    protected Skin<?> createDefaultSkin() {
+        return new SkinBase<MovesPane>(this) {
+            {
+                getChildren().add(moveBox);
+            }
+        };
+    }
+
+    private double getLayoutWidth() {
+        return moveBox.getWidth() - SCROLLBAR_WIDTH; // Compensate for vertical scrollbar
+    }
+
+    /**
+     * Shows another game. The notation of the previous game is removed right away, so that its moves
+     * can't be selected in the new game, and a layout of it that is still running is discarded.
+     */
     public void setModel(NavigableGameModel model) {
+        if (model == this.model) {
+            return;
+        }
         this.model = model;
+        layoutVersion++;
+        if (pendingLayout != null) {
+            pendingLayout.cancel(true);
+            pendingLayout = null;
+        }
+        selectedNode.set(null);
+        moveBox.getItems().clear();
+        requestDrawMoves();
+    }
+
+    /**
+     * Sets how long comments are broken into rows
+     */
+    public void setLineBreakingMode(LineBreaker.Mode mode) {
+        this.lineBreaker = new LineBreaker(mode);
+        requestDrawMoves();
     }
 
     private void handleMoveSelected(MouseEvent mouseEvent) {
@@ -69,345 +137,246 @@ public class MovesPane extends Control {
     }
 
     public void selectPosition(GameMovesModel.Node position) {
-        if (model.cursor() != null) {
-            // Deselect previous selection
-            MoveLabel moveLabel = positionLabelMap.get(model.cursor());
-            if (moveLabel != null) {
-                moveLabel.getStyleClass().remove("selected-move");
-            }
+        if (position != null && !isInModel(position)) {
+            log.debug("Ignoring selection of a move in another game");
+            return;
         }
-
-        model.setCursor(position);
-
-        // Highlight the selected position
-        MoveLabel moveLabel = positionLabelMap.get(model.cursor());
-        if (moveLabel != null) {
-            moveLabel.getStyleClass().add("selected-move");
+        synchronized (model) {
+            model.setCursor(position);
         }
+        // Only the materialized rows update the highlighting
+        selectedNode.set(position);
 
         // TODO: drawBoard();
     }
 
-
-    private void addNewRow(int level) {
-        currentRow = new HBox();
-        currentRowWidth = 16 * level;
-        currentRow.setPadding(new Insets(2, 0, 2, currentRowWidth));
-        moveBox.getChildren().add(currentRow);
-//        log.debug("new row");
+    private boolean isInModel(GameMovesModel.Node node) {
+        while (node.parent() != null) {
+            node = node.parent();
+        }
+        return node == model.moves().root();
     }
 
-    // Determines the width of a label based ONLY on the text and it's styleclasses (not padding)
-    private double getLabelWidth(Label label, String... extraStyleClasses) {
-        Text text = new Text(label.getText());
-        text.getStyleClass().addAll(label.getStyleClass());
-        text.getStyleClass().addAll(extraStyleClasses);
-
-        String cacheId = text.getStyleClass() + "#" + label.getText();
-        if (labelWidthCache.containsKey(cacheId)) {
-            return labelWidthCache.get(cacheId);
+    /**
+     * Requests the notation to be redrawn. The layout is computed on a background thread
+     * and then applied on the FX thread, unless a newer layout has been requested by then.
+     */
+    public void drawMoves() {
+        if (getLayoutWidth() <= 0) {
+            log.info("Can't generate moves because moveBox width is not known");
+            return;
+        }
+        if (pendingLayout != null) {
+            pendingLayout.cancel(true);
         }
+        long version = ++layoutVersion;
+        NavigableGameModel liveModel = model;
+        double width = getLayoutWidth() - MOVE_BOX_RIGHT_MARGIN;
+        double annotationWidth = graphicalAnnotationImage.getWidth();
+        LineBreaker breaker = lineBreaker;
+
+        pendingLayout = layoutExecutor.submit(() -> {
+            log.debug("starting to generate move controls");
+            PlayerEvents.NotationLayout event = new PlayerEvents.NotationLayout();
+            event.begin();
+            long misses = textMeasurer.getMisses();
+            long start = System.nanoTime();
+            // The model keeps changing on the FX thread, so the layout is done on a copy of it, made while
+            // holding the model's lock which is held whenever the model is changed. The moves in the layout
+            // are then mapped back to the nodes of the real game tree.
+            NavigableGameModel snapshot = new NavigableGameModel();
+            Map<GameMovesModel.Node, GameMovesModel.Node> liveNodes = new IdentityHashMap<>();
+            synchronized (liveModel) {
+                snapshot.replaceAll(liveModel);
+                mapNodes(snapshot.moves().root(), liveModel.moves().root(), liveNodes);
+            }
+            List<NotationRow> rows;
+            try {
+                NotationLayout layout = new NotationLayout(snapshot, width, annotationWidth, textMeasurer, breaker);
+                rows = toLiveNodes(layout.layout(), liveNodes);
+            } catch (CancellationException e) {
+                log.debug("Layout " + version + " was cancelled");
+                return;
+            } catch (RuntimeException e) {
+                log.warn("Failed to lay out the notation", e);
+                return;
+            }
+            long stop = System.nanoTime();
+            Metrics.get().notationLaidOut(stop - start);
+            event.end();
+            if (event.shouldCommit()) {
+                event.rows = rows.size();
+                for (NotationRow row : rows) {
+                    event.items += row.getItems().size();
+                    for (NotationItem item : row.getItems()) {
+                        if (item.isMove()) {
+                            event.moves++;
+                        }
+                    }
+                }
+                event.labelCacheMisses = textMeasurer.getMisses() - misses;
+                event.commit();
+            }
+            log.debug(String.format("layout done in %d ms (label width cache: %d entries, %d hits, %d misses)",
+                    (stop - start) / 1000000, textMeasurer.getCacheSize(), textMeasurer.getHits(), textMeasurer.getMisses()));
 
-        HBox hbox = new HBox(text);
-        hbox.setId("moveBox");
-        Scene scene = new Scene(hbox);
-        scene.getStylesheets().add("/styles/styles.css");
-//        log.info("without css: " + text.getLayoutBounds().getWidth());
-        text.applyCss();
-//        log.info("with css: " + text.getLayoutBounds().getWidth());
-        double width = text.getLayoutBounds().getWidth();
-        labelWidthCache.put(cacheId, width);
-        return width;
+            Platform.runLater(() -> {
+                if (version != layoutVersion) {
+                    log.debug("Discarding stale layout " + version);
+                    return;
+                }
+                pendingLayout = null;
+                long applyStart = System.nanoTime();
+                applyRows(rows);
+                if (model.cursor() != null) {
+                    selectPosition(model.cursor());
+                }
+                long applyStop = System.nanoTime();
+                Metrics.get().notationApplied(applyStop - applyStart);
+                log.debug("applied in " + (applyStop - applyStart) / 1000000 + " ms");
+            });
+        });
     }
 
-    private void addImage(Image image) {
-        // TODO: This is ugly (and not correct), should be same method as addControl if possible to avoid code duplication.
-
-        double width = image.getWidth();
-
-        currentRow.getChildren().add(new ImageView(image));
-        currentRowWidth += width;
+    /**
+     * Maps the nodes of a copy of a game tree to the corresponding nodes of the original tree
+     */
+    private static void mapNodes(GameMovesModel.Node copyRoot, GameMovesModel.Node liveRoot,
+                                 Map<GameMovesModel.Node, GameMovesModel.Node> liveNodes) {
+        Deque<GameMovesModel.Node[]> pending = new ArrayDeque<>();
+        pending.push(new GameMovesModel.Node[] { copyRoot, liveRoot });
+        while (!pending.isEmpty()) {
+            GameMovesModel.Node[] pair = pending.pop();
+            liveNodes.put(pair[0], pair[1]);
+            List<GameMovesModel.Node> copyChildren = pair[0].children(), liveChildren = pair[1].children();
+            for (int i = 0; i < copyChildren.size(); i++) {
+                pending.push(new GameMovesModel.Node[] { copyChildren.get(i), liveChildren.get(i) });
+            }
+        }
     }
 
-    private void addControl(Control node, int level, double leftPadding, double rightPadding, String... styleClass) {
-        node.getStyleClass().addAll(styleClass);
-
-        if (!(node instanceof Label)) throw new RuntimeException("Not supported yet");
-        double width = getLabelWidth((Label) node);
-        boolean singleCharacter = ((Label) node).getText().length() == 1;
-//        log.debug(((Label) control).getText() + " " + leftPadding + " " + currentRow.getChildren().size());
-
-//        log.debug("currentRowWidth = " + currentRowWidth + ", controlWidth = " + width + ", moveBox width = " + moveBox.getWidth());
-        // Force single characters to be on same line; we give enough margin to make this possible
-        if (!singleCharacter && currentRowWidth + width + leftPadding + rightPadding >
-                moveBox.getWidth() - MOVE_BOX_RIGHT_MARGIN) {
-            Node last = null;
-            if (pullDownLastIfEOL) {
-                int lastIndex = currentRow.getChildren().size() - 1;
-                last = currentRow.getChildren().get(lastIndex);
-                currentRow.getChildren().remove(lastIndex);
-            }
-            addNewRow(level);
-            if (last != null) {
-                currentRow.getChildren().add(last);
-                if (last instanceof Label) {
-                    currentRowWidth += getLabelWidth((Label) last);
-                }
+    private static List<NotationRow> toLiveNodes(List<NotationRow> rows,
+                                                 Map<GameMovesModel.Node, GameMovesModel.Node> liveNodes) {
+        List<NotationRow> mapped = new ArrayList<>(rows.size());
+        for (NotationRow row : rows) {
+            List<NotationItem> items = new ArrayList<>(row.getItems().size());
+            for (NotationItem item : row.getItems()) {
+                items.add(item.isMove() ? item.withNode(liveNodes.get(item.getNode())) : item);
             }
+            mapped.add(new NotationRow(row.getLevel(), items));
         }
+        return mapped;
+    }
 
-        pullDownLastIfEOL = false;
-
-        if (currentRow.getChildren().size() == 0) {
-            leftPadding = 0;
+    /**
+     * Updates the shown notation to the given rows. Only the rows that differ from the
+     * currently shown rows are replaced in the list; the rest are kept as they are.
+     */
+    private void applyRows(List<NotationRow> newRows) {
+        List<NotationRow> shownRows = moveBox.getItems();
+        int prefix = 0, maxPrefix = Math.min(shownRows.size(), newRows.size());
+        while (prefix < maxPrefix && shownRows.get(prefix).equals(newRows.get(prefix))) {
+            prefix++;
+        }
+        int suffix = 0, maxSuffix = maxPrefix - prefix;
+        while (suffix < maxSuffix && shownRows.get(shownRows.size() - 1 - suffix).equals(newRows.get(newRows.size() - 1 - suffix))) {
+            suffix++;
         }
 
-        node.setPadding(new Insets(0, rightPadding, 0, leftPadding));
-        currentRow.getChildren().add(node);
-        currentRowWidth += width + leftPadding + rightPadding;
-    }
+        int replaced = shownRows.size() - prefix - suffix;
+        shownRows.remove(prefix, shownRows.size() - suffix);
+        shownRows.addAll(prefix, newRows.subList(prefix, newRows.size() - suffix));
 
-    private boolean fitsOnRow(String text, double leftPadding, double rightPadding, String... styleClass) {
-        Label label = new Label(text);
-        double width = getLabelWidth(label, styleClass);
-        return currentRowWidth + width + leftPadding + rightPadding <= moveBox.getWidth() - MOVE_BOX_RIGHT_MARGIN;
+        // The kept rows may refer to nodes in a game tree that has since been recreated
+        for (int i = 0; i < prefix; i++) {
+            refreshNodes(shownRows, newRows, i);
+        }
+        for (int i = newRows.size() - suffix; i < newRows.size(); i++) {
+            refreshNodes(shownRows, newRows, i);
+        }
+        log.debug(String.format("Replaced %d rows with %d new rows, kept %d rows",
+                replaced, newRows.size() - prefix - suffix, prefix + suffix));
     }
 
-    private void addText(String text, int level, double leftPadding, double rightPadding, String... styleClass) {
-        if (text.trim().length() == 0) return;
-
-        // Check if the entire text fits on the row
-        if (fitsOnRow(text, leftPadding, rightPadding, styleClass)) {
-            addControl(new Label(text), level, leftPadding, rightPadding, styleClass);
-        } else {
-//            log.debug("Doesn't fit: " + text);
-            // Check if we can split it
-            int cur = text.indexOf(' ');
-            if (cur < 0) {
-                // If there are no spaces, we can't do so much
-                addControl(new Label(text), level, leftPadding, rightPadding, styleClass);
-            } else {
-                int best = cur; // Always take the first word, even if it's too long (can't do better)
-                while (cur != -1 && fitsOnRow(text.substring(0, cur), leftPadding, 0, styleClass)) {
-                    best = cur;
-                    cur = text.indexOf(' ', cur + 1);
-                }
-//                log.debug("DID FIT: " + text.substring(0, best));
-                addControl(new Label(text.substring(0, best)), level, leftPadding, 0, styleClass);
-                addNewRow(level);
-                // Recursively split the next part, if needed
-                addText(text.substring(best + 1), level, 0, rightPadding, styleClass);
+    private void refreshNodes(List<NotationRow> shownRows, List<NotationRow> newRows, int index) {
+        List<NotationItem> shownItems = shownRows.get(index).getItems();
+        List<NotationItem> newItems = newRows.get(index).getItems();
+        for (int i = 0; i < shownItems.size(); i++) {
+            if (shownItems.get(i).getNode() != newItems.get(i).getNode()) {
+                shownRows.set(index, newRows.get(index));
+                return;
             }
         }
     }
 
-    private void addText(String text, int level, String... styleClass) {
-        addText(text, level, 0.0, 0.0, styleClass);
-    }
-
-    private void addPreMoveAnnotations(GameMovesModel.Node node, int level) {
-        // TODO: This won't work properly in case of multiple languages
-        CommentaryBeforeMoveAnnotation beforeMoveAnnotation = model.cursor().getAnnotations().getAnnotation(CommentaryBeforeMoveAnnotation.class);
-        if (beforeMoveAnnotation != null) {
-            addText(beforeMoveAnnotation.getCommentary(), level, "comment-label");
+    private HBox createRowNode(NotationRow row) {
+        HBox rowNode = new HBox();
+        rowNode.setPadding(new Insets(2, 0, 2, 16 * row.getLevel()));
+        for (NotationItem item : row.getItems()) {
+            rowNode.getChildren().add(createItemNode(item));
         }
+        return rowNode;
     }
 
-    private void addPostMoveAnnotations(GameMovesModel.Node node, int level) {
-        Annotations annotations = node.getAnnotations();
-        boolean hasGraphicalAnnotations =
-                annotations.getAnnotation(GraphicalArrowsAnnotation.class) != null ||
-                        annotations.getAnnotation(GraphicalSquaresAnnotation.class) != null;
-        if (hasGraphicalAnnotations) {
-            addImage(new Image("images/graphical-annotation.png", 16, 16, true, true));
+    private Node createItemNode(NotationItem item) {
+        if (item.isGraphicalAnnotationIcon()) {
+            return new ImageView(graphicalAnnotationImage);
         }
-
-        // TODO: This won't work properly in case of multiple languages
-        CommentaryAfterMoveAnnotation afterMoveAnnotation = model.cursor().getAnnotations().getAnnotation(CommentaryAfterMoveAnnotation.class);
-
-        if (afterMoveAnnotation != null) {
-            addText(afterMoveAnnotation.getCommentary(), level, "comment-label");
+        Label label;
+        if (item.isMove()) {
+            label = new MoveLabel(item.getMove(), item.getNode());
+            label.setOnMouseClicked(this::handleMoveSelected);
+        } else {
+            label = new Label();
         }
+        label.setText(item.getText());
+        label.getStyleClass().addAll(item.getStyleClasses());
+        label.setPadding(new Insets(0, item.getRightPadding(), 0, item.getLeftPadding()));
+        return label;
     }
 
-    /**
-     * Output the last move made with annotations
-     * @param node the position after the last move (can be the start position)
-     */
-    private void addMove(GameMovesModel.Node node,
-                         boolean showMoveNumber,
-                         int level,
-                         boolean inlineVariation,
-                         boolean headOfVariation) {
-        Move move = node.lastMove();
-        addPreMoveAnnotations(node, level);
-
-        // Move is null if node is the start position of the game
-        if (move != null) {
-            // This assumes there can only be on symbol annotation per move
-            SymbolAnnotation symbols = model.cursor().getAnnotations().getAnnotation(SymbolAnnotation.class);
-            MovePrefix movePrefix = symbols == null ? MovePrefix.NOTHING : symbols.getMovePrefix();
-            MoveComment moveComment = symbols == null ? MoveComment.NOTHING : symbols.getMoveComment();
-            LineEvaluation lineEvaluation = symbols == null ? LineEvaluation.NO_EVALUATION : symbols.getLineEvaluation();
-
-            CriticalPositionAnnotation criticalPosition = model.cursor().getAnnotations().getAnnotation(CriticalPositionAnnotation.class);
-
-            // Add move, symbols and move number
-            MoveLabel lbl = new MoveLabel(move, node);
-            String moveText = movePrefix.toUnicodeString();
-            Player moveColor = node.parent().position().playerToMove();
-            if (showMoveNumber || moveColor == Player.WHITE) {
-                moveText += String.format("%d.", Chess.plyToMoveNumber(node.parent().ply()));
-                if (moveColor == Player.BLACK) moveText += "..";
-            }
+    private class NotationRowCell extends ListCell<NotationRow> {
+        private NotationRow shownRow;
+        private HBox rowNode;
+        // Held by the cell so that the weak listener lives exactly as long as the cell
+        private final ChangeListener<GameMovesModel.Node> selectionListener = (observable, oldNode, newNode) -> updateSelection();
 
-            moveText += move.toSAN();
-            moveText += moveComment.toUnicodeString();
-            moveText += lineEvaluation.toUnicodeString();
+        NotationRowCell() {
+            selectedNode.addListener(new WeakChangeListener<>(selectionListener));
+        }
 
-            lbl.setText(moveText);
-            lbl.setOnMouseClicked(this::handleMoveSelected);
-            List<String> styles = new ArrayList<>();
-            double leftPadding = 4, rightPadding = 4;
-            if (headOfVariation && model.cursor().getAnnotations().getAnnotation(CommentaryBeforeMoveAnnotation.class) == null) {
-                leftPadding = 0;
+        @Override
+        protected void updateItem(NotationRow row, boolean empty) {
+            super.updateItem(row, empty);
+            if (empty || row == null) {
+                shownRow = null;
+                rowNode = null;
+                setGraphic(null);
+                return;
             }
-            if (!node.hasMoves() && model.cursor().getAnnotations().getAnnotation(CommentaryAfterMoveAnnotation.class) == null) {
-                rightPadding = 0;
+            if (row != shownRow) {
+                shownRow = row;
+                rowNode = createRowNode(row);
+                setGraphic(rowNode);
             }
-            if (level == 0 && !model.moves().root().isSingleLine()) {
-                styles.add("main-line");
-            } else if (inlineVariation) {
-                styles.add("last-line");
-            }
-            if (headOfVariation && !inlineVariation && level > 1) {
-                styles.add("variation-head");
-                leftPadding = 4;
-            }
-            if (criticalPosition != null) {
-                // TODO: These styles don't look as nice when the move is the selected move
-                switch (criticalPosition.getType()) {
-                    case OPENING:
-                        styles.add("critical-opening-position");
-                        break;
-                    case MIDDLEGAME:
-                        styles.add("critical-middlegame-position");
-                        break;
-                    case ENDGAME:
-                        styles.add("critical-endgame-position");
-                        break;
-                }
-            }
-
-            lbl.getStyleClass().addAll(styles);
-            positionLabelMap.put(node, lbl);
-            addControl(lbl, level, leftPadding, rightPadding);
+            updateSelection();
         }
 
-        addPostMoveAnnotations(node, level);
-    }
-
-    private boolean allVariationsAreSingleLine(GameMovesModel.Node node) {
-        return node.children()
-                .stream()
-                .skip(1) // Skip the main variation
-                .allMatch(child -> node.isSingleLine());
-    }
-
-    private void generateMoveControls(GameMovesModel.Node node, boolean showMoveNumber,
-                                      int level, boolean inlineVariation, String linePrefix) {
-        // TODO: Try and make this cleaner by using TextFlow, so we don't have to calculate the width of everything manually
-        if (node.lastMove() != null) {
-            addMove(node, showMoveNumber, level, inlineVariation, true);
-            showMoveNumber = false;
-        }
-
-        while (node.hasMoves()) {
-            List<Move> moves = node.moves();
-            if (moves.size() == 1) {
-                addMove(node.mainNode(), showMoveNumber, level, inlineVariation, false);
-                showMoveNumber = false;
-            } else {
-                if (inlineVariation) throw new RuntimeException("Found variations in an inline variation");
-                if (level == 0) {
-                    // Show main move on existing line, but then one new paragraph per sub-line,
-                    // each paragraph starting with [ and ending with ]
-                    addMove(node.mainNode(), showMoveNumber, level, false, false);
-
-                    for (int i = 1; i < moves.size(); i++) {
-                        addNewRow(level + 1);
-                        addText("[", level + 1);
-                        generateMoveControls(node.children().get(i), true, level + 1, false, linePrefix);
-                        addText("]", level + 1);
-                    }
-                    addNewRow(level);
-                    showMoveNumber = true;
-                } else if (allVariationsAreSingleLine(node)) {
-                    // Show the alternatives inline, within () and separated by ;
-                    addMove(node.mainNode(), showMoveNumber, level, false, false);
-
-                    addText("(", level, 6.0, 0.0, "last-line");
-                    pullDownLastIfEOL = true;
-                    for (int i = 1; i < moves.size(); i++) {
-                        if (i > 1) addText(";", level, 0.0, 3.0, "last-line");
-                        generateMoveControls(node.children().get(i), true, level, true, linePrefix);
-                    }
-                    addText(")", level, "last-line");
-                    showMoveNumber = true;
-                } else {
-                    // Subvariations are marked with letters and digits alternatively for each level, e.g. "B1c"
-                    // The order is: [A-Z], [1-9], [a-z], [1-9], [1-9] and repeat digits
-                    // But replace [1-9] with [a-z] if there are 10 or more lines at that level
-                    // It won't look pretty if there are more than 26 lines, but CB has the same issue
-                    char startChar = '1';
-                    if (level == 1) startChar = 'A';
-                    if (level == 3) startChar = 'a';
-                    if (startChar == '1' && moves.size() >= 10) startChar = 'a';
-
-                    for (int i = 0; i < moves.size(); i++) {
-                        if (i > 0) addText(";", level + 1);
-                        addNewRow(level + 1);
-
-                        String newLinePrefix = linePrefix + (char) (startChar+i);
-                        addText(String.format("%s)", newLinePrefix), level + 1, "variation-name");
-                        // The main line goes last
-                        generateMoveControls(node.children().get((i+1) % moves.size()), true, level + 1, false, newLinePrefix);
-
+        void updateSelection() {
+            if (rowNode == null) {
+                return;
+            }
+            for (Node node : rowNode.getChildren()) {
+                if (node instanceof MoveLabel) {
+                    MoveLabel moveLabel = (MoveLabel) node;
+                    boolean selected = moveLabel.getNode() == selectedNode.get();
+                    if (selected && !moveLabel.getStyleClass().contains("selected-move")) {
+                        moveLabel.getStyleClass().add("selected-move");
+                    } else if (!selected) {
+                        moveLabel.getStyleClass().remove("selected-move");
                     }
-                    break;
                 }
             }
-            node = node.mainNode();
-        }
-    }
-
-    public void drawMoves() {
-        if (moveBox.getWidth() == 0) {
-            log.info("Can't generate moves because moveBox width is not known");
-            return;
-        }
-        log.debug("starting to generate move controls");
-        long start = System.currentTimeMillis();
-        positionLabelMap = new HashMap<>();
-        moveBox.getChildren().clear();
-        addNewRow(0);
-
-        GameMovesModel.Node rootNode = model.moves().root();
-        addMove(rootNode, false, 0, false, false);
-        generateMoveControls(rootNode, true, 0, false, "");
-
-        addNewRow(0);
-        // TODO: This doesn't show correct (or at least not the same as CB) in case of forfeits etc
-        GameResult result = model.header().getResult();
-        if (result != null) {
-            addText(result.toString(), 0, "main-line");
         }
-
-        if (model.cursor() != null) {
-            selectPosition(model.cursor());
-        }
-
-        long stop = System.currentTimeMillis();
-        log.debug("done in " + (stop-start) + " ms");
     }
 }
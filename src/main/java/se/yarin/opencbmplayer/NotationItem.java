@@ -0,0 +1,113 @@
+package se.yarin.opencbmplayer;
+
+import se.yarin.chess.GameMovesModel;
+import se.yarin.chess.Move;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * An immutable description of a single item (move, text or icon) in a row of the notation.
+ * Two items are equal if they would be rendered the same way; the game node a move refers to
+ * is not part of the equality so that unchanged rows can be reused when the game tree is recreated.
+ */
+public class NotationItem {
+    private final String text;
+    private final List<String> styleClasses;
+    private final double leftPadding;
+    private final double rightPadding;
+    private final double width;
+    private final Move move;
+    private final GameMovesModel.Node node;
+
+    private NotationItem(String text, List<String> styleClasses, double leftPadding, double rightPadding,
+                         double width, Move move, GameMovesModel.Node node) {
+        this.text = text;
+        this.styleClasses = Collections.unmodifiableList(styleClasses);
+        this.leftPadding = leftPadding;
+        this.rightPadding = rightPadding;
+        this.width = width;
+        this.move = move;
+        this.node = node;
+    }
+
+    public static NotationItem text(String text, List<String> styleClasses,
+                                    double leftPadding, double rightPadding, double width) {
+        return new NotationItem(text, styleClasses, leftPadding, rightPadding, width, null, null);
+    }
+
+    public static NotationItem move(String text, List<String> styleClasses,
+                                    double leftPadding, double rightPadding, double width,
+                                    Move move, GameMovesModel.Node node) {
+        return new NotationItem(text, styleClasses, leftPadding, rightPadding, width, move, node);
+    }
+
+    public static NotationItem graphicalAnnotationIcon(double width) {
+        return new NotationItem(null, Collections.emptyList(), 0, 0, width, null, null);
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public List<String> getStyleClasses() {
+        return styleClasses;
+    }
+
+    public double getLeftPadding() {
+        return leftPadding;
+    }
+
+    public double getRightPadding() {
+        return rightPadding;
+    }
+
+    /**
+     * @return the width of the item, not including the padding
+     */
+    public double getWidth() {
+        return width;
+    }
+
+    public Move getMove() {
+        return move;
+    }
+
+    public GameMovesModel.Node getNode() {
+        return node;
+    }
+
+    public boolean isMove() {
+        return node != null;
+    }
+
+    public boolean isGraphicalAnnotationIcon() {
+        return text == null;
+    }
+
+    public NotationItem withPadding(double leftPadding, double rightPadding) {
+        return new NotationItem(text, styleClasses, leftPadding, rightPadding, width, move, node);
+    }
+
+    public NotationItem withNode(GameMovesModel.Node node) {
+        return new NotationItem(text, styleClasses, leftPadding, rightPadding, width, move, node);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        NotationItem that = (NotationItem) o;
+        return Double.compare(that.leftPadding, leftPadding) == 0 &&
+                Double.compare(that.rightPadding, rightPadding) == 0 &&
+                Objects.equals(text, that.text) &&
+                styleClasses.equals(that.styleClasses) &&
+                isMove() == that.isMove();
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(text, styleClasses, leftPadding, rightPadding, isMove());
+    }
+}
@@ -0,0 +1,365 @@
+package se.yarin.opencbmplayer;
+
+import se.yarin.cbhlib.annotations.CriticalPositionAnnotation;
+import se.yarin.cbhlib.annotations.GraphicalArrowsAnnotation;
+import se.yarin.cbhlib.annotations.GraphicalSquaresAnnotation;
+import se.yarin.chess.*;
+import se.yarin.chess.annotations.Annotations;
+import se.yarin.chess.annotations.CommentaryAfterMoveAnnotation;
+import se.yarin.chess.annotations.CommentaryBeforeMoveAnnotation;
+import se.yarin.chess.annotations.SymbolAnnotation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Computes the row layout of the notation of a game, without creating any nodes.
+ * The result is an immutable list of rows that can be applied to the notation view.
+ */
+public class NotationLayout {
+    private final String LABEL_STYLE_CLASS = "label";
+
+    private final NavigableGameModel model;
+    private final double availableWidth;
+    private final double imageWidth;
+    private final TextMeasurer textMeasurer;
+    private final LineBreaker lineBreaker;
+
+    // Layout state, only used while the rows are generated
+    private List<NotationRow> rows;
+    private int currentRowLevel;
+    private List<NotationItem> currentRowItems;
+    private double currentRowWidth;
+    private boolean pullDownLastIfEOL;
+
+    /**
+     * Creates a new layout
+     * @param model the game to lay out
+     * @param availableWidth the width available for each row
+     * @param imageWidth the width of the graphical annotation icon
+     * @param textMeasurer the measurer of the width of the texts
+     * @param lineBreaker determines how long comments are broken into rows
+     */
+    public NotationLayout(NavigableGameModel model, double availableWidth, double imageWidth,
+                          TextMeasurer textMeasurer, LineBreaker lineBreaker) {
+        this.model = model;
+        this.availableWidth = availableWidth;
+        this.imageWidth = imageWidth;
+        this.textMeasurer = textMeasurer;
+        this.lineBreaker = lineBreaker;
+    }
+
+    /**
+     * Lays out the notation of the game. Can be called from any thread,
+     * but the game model must not be changed while the layout is computed.
+     * @return the rows of the notation
+     * @throws CancellationException if the calling thread was interrupted
+     */
+    public List<NotationRow> layout() {
+        rows = new ArrayList<>();
+        addNewRow(0);
+
+        GameMovesModel.Node rootNode = model.moves().root();
+        addMove(rootNode, false, 0, false, false);
+        generateMoveControls(rootNode, true, 0, false, "");
+
+        addNewRow(0);
+        // TODO: This doesn't show correct (or at least not the same as CB) in case of forfeits etc
+        GameResult result = model.header().getResult();
+        if (result != null) {
+            addText(result.toString(), 0, "main-line");
+        }
+        finishRow();
+
+        List<NotationRow> layout = rows;
+        rows = null;
+        return layout;
+    }
+
+    private void checkCancelled() {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new CancellationException("The notation layout was cancelled");
+        }
+    }
+
+    private void addNewRow(int level) {
+        finishRow();
+        currentRowLevel = level;
+        currentRowItems = new ArrayList<>();
+        currentRowWidth = 16 * level;
+//        log.debug("new row");
+    }
+
+    private void finishRow() {
+        if (currentRowItems != null) {
+            rows.add(new NotationRow(currentRowLevel, currentRowItems));
+            currentRowItems = null;
+        }
+    }
+
+    // Determines the width of a label based ONLY on the text and it's styleclasses (not padding)
+    private double getLabelWidth(String labelText, List<String> styleClasses) {
+        List<String> labelStyleClasses = new ArrayList<>(styleClasses.size() + 1);
+        labelStyleClasses.add(LABEL_STYLE_CLASS);
+        labelStyleClasses.addAll(styleClasses);
+        return textMeasurer.getWidth(labelText, labelStyleClasses);
+    }
+
+    private void addImage() {
+        // TODO: This is ugly (and not correct), should be same method as addItem if possible to avoid code duplication.
+
+        currentRowItems.add(NotationItem.graphicalAnnotationIcon(imageWidth));
+        currentRowWidth += imageWidth;
+    }
+
+    private void addItem(NotationItem item, int level) {
+        double width = item.getWidth();
+        double leftPadding = item.getLeftPadding(), rightPadding = item.getRightPadding();
+        boolean singleCharacter = item.getText().length() == 1;
+
+//        log.debug("currentRowWidth = " + currentRowWidth + ", itemWidth = " + width + ", available width = " + availableWidth);
+        // Force single characters to be on same line; we give enough margin to make this possible
+        if (!singleCharacter && currentRowWidth + width + leftPadding + rightPadding > availableWidth) {
+            NotationItem last = null;
+            if (pullDownLastIfEOL && currentRowItems.size() > 0) {
+                last = currentRowItems.remove(currentRowItems.size() - 1);
+            }
+            addNewRow(level);
+            if (last != null) {
+                currentRowItems.add(last);
+                currentRowWidth += last.getWidth();
+            }
+        }
+
+        pullDownLastIfEOL = false;
+
+        if (currentRowItems.size() == 0) {
+            leftPadding = 0;
+        }
+
+        currentRowItems.add(item.withPadding(leftPadding, rightPadding));
+        currentRowWidth += width + leftPadding + rightPadding;
+    }
+
+    private NotationItem textItem(String text, double leftPadding, double rightPadding, String... styleClass) {
+        List<String> styleClasses = Arrays.asList(styleClass);
+        return NotationItem.text(text, styleClasses, leftPadding, rightPadding, getLabelWidth(text, styleClasses));
+    }
+
+    private boolean fitsOnRow(String text, double leftPadding, double rightPadding, String... styleClass) {
+        double width = getLabelWidth(text, Arrays.asList(styleClass));
+        return currentRowWidth + width + leftPadding + rightPadding <= availableWidth;
+    }
+
+    private void addText(String text, int level, double leftPadding, double rightPadding, String... styleClass) {
+        if (text.trim().length() == 0) return;
+
+        // Check if the entire text fits on the row; if there are no spaces, we can't do so much either
+        if (fitsOnRow(text, leftPadding, rightPadding, styleClass) || text.indexOf(' ') < 0) {
+            addItem(textItem(text, leftPadding, rightPadding, styleClass), level);
+            return;
+        }
+
+//        log.debug("Doesn't fit: " + text);
+        List<String> styleClasses = Arrays.asList(styleClass);
+        double lineWidth = availableWidth - 16 * level;
+        double firstLineWidth = availableWidth - currentRowWidth - leftPadding;
+        if (currentRowItems.size() > 0 && !fitsOnRow(text.substring(0, text.indexOf(' ')), leftPadding, 0, styleClass)) {
+            // Not even the first word fits, so start on a new row
+            addNewRow(level);
+            firstLineWidth = lineWidth;
+            leftPadding = 0;
+        }
+
+        List<LineBreaker.Line> lines = lineBreaker.breakLines(text,
+                word -> getLabelWidth(word, styleClasses), firstLineWidth, lineWidth);
+        for (int i = 0; i < lines.size(); i++) {
+            LineBreaker.Line line = lines.get(i);
+            if (i > 0) addNewRow(level);
+            addItem(NotationItem.text(line.getText(), styleClasses,
+                    i == 0 ? leftPadding : 0,
+                    i == lines.size() - 1 ? rightPadding : 0,
+                    line.getWidth()), level);
+        }
+    }
+
+    private void addText(String text, int level, String... styleClass) {
+        addText(text, level, 0.0, 0.0, styleClass);
+    }
+
+    private void addPreMoveAnnotations(GameMovesModel.Node node, int level) {
+        // TODO: This won't work properly in case of multiple languages
+        CommentaryBeforeMoveAnnotation beforeMoveAnnotation = node.getAnnotations().getAnnotation(CommentaryBeforeMoveAnnotation.class);
+        if (beforeMoveAnnotation != null) {
+            addText(beforeMoveAnnotation.getCommentary(), level, "comment-label");
+        }
+    }
+
+    private void addPostMoveAnnotations(GameMovesModel.Node node, int level) {
+        Annotations annotations = node.getAnnotations();
+        boolean hasGraphicalAnnotations =
+                annotations.getAnnotation(GraphicalArrowsAnnotation.class) != null ||
+                        annotations.getAnnotation(GraphicalSquaresAnnotation.class) != null;
+        if (hasGraphicalAnnotations) {
+            addImage();
+        }
+
+        // TODO: This won't work properly in case of multiple languages
+        CommentaryAfterMoveAnnotation afterMoveAnnotation = annotations.getAnnotation(CommentaryAfterMoveAnnotation.class);
+
+        if (afterMoveAnnotation != null) {
+            addText(afterMoveAnnotation.getCommentary(), level, "comment-label");
+        }
+    }
+
+    /**
+     * Output the last move made with annotations
+     * @param node the position after the last move (can be the start position)
+     */
+    private void addMove(GameMovesModel.Node node,
+                         boolean showMoveNumber,
+                         int level,
+                         boolean inlineVariation,
+                         boolean headOfVariation) {
+        checkCancelled();
+        Move move = node.lastMove();
+        addPreMoveAnnotations(node, level);
+
+        // Move is null if node is the start position of the game
+        if (move != null) {
+            Annotations annotations = node.getAnnotations();
+            // This assumes there can only be on symbol annotation per move
+            SymbolAnnotation symbols = annotations.getAnnotation(SymbolAnnotation.class);
+            MovePrefix movePrefix = symbols == null ? MovePrefix.NOTHING : symbols.getMovePrefix();
+            MoveComment moveComment = symbols == null ? MoveComment.NOTHING : symbols.getMoveComment();
+            LineEvaluation lineEvaluation = symbols == null ? LineEvaluation.NO_EVALUATION : symbols.getLineEvaluation();
+
+            CriticalPositionAnnotation criticalPosition = annotations.getAnnotation(CriticalPositionAnnotation.class);
+
+            // Add move, symbols and move number
+            String moveText = movePrefix.toUnicodeString();
+            Player moveColor = node.parent().position().playerToMove();
+            if (showMoveNumber || moveColor == Player.WHITE) {
+                moveText += String.format("%d.", Chess.plyToMoveNumber(node.parent().ply()));
+                if (moveColor == Player.BLACK) moveText += "..";
+            }
+
+            moveText += move.toSAN();
+            moveText += moveComment.toUnicodeString();
+            moveText += lineEvaluation.toUnicodeString();
+
+            List<String> styles = new ArrayList<>();
+            double leftPadding = 4, rightPadding = 4;
+            if (headOfVariation && annotations.getAnnotation(CommentaryBeforeMoveAnnotation.class) == null) {
+                leftPadding = 0;
+            }
+            if (!node.hasMoves() && annotations.getAnnotation(CommentaryAfterMoveAnnotation.class) == null) {
+                rightPadding = 0;
+            }
+            if (level == 0 && !model.moves().root().isSingleLine()) {
+                styles.add("main-line");
+            } else if (inlineVariation) {
+                styles.add("last-line");
+            }
+            if (headOfVariation && !inlineVariation && level > 1) {
+                styles.add("variation-head");
+                leftPadding = 4;
+            }
+            if (criticalPosition != null) {
+                // TODO: These styles don't look as nice when the move is the selected move
+                switch (criticalPosition.getType()) {
+                    case OPENING:
+                        styles.add("critical-opening-position");
+                        break;
+                    case MIDDLEGAME:
+                        styles.add("critical-middlegame-position");
+                        break;
+                    case ENDGAME:
+                        styles.add("critical-endgame-position");
+                        break;
+                }
+            }
+
+            double width = getLabelWidth(moveText, styles);
+            addItem(NotationItem.move(moveText, styles, leftPadding, rightPadding, width, move, node), level);
+        }
+
+        addPostMoveAnnotations(node, level);
+    }
+
+    private boolean allVariationsAreSingleLine(GameMovesModel.Node node) {
+        return node.children()
+                .stream()
+                .skip(1) // Skip the main variation
+                .allMatch(child -> node.isSingleLine());
+    }
+
+    private void generateMoveControls(GameMovesModel.Node node, boolean showMoveNumber,
+                                      int level, boolean inlineVariation, String linePrefix) {
+        // TODO: Try and make this cleaner by using TextFlow, so we don't have to calculate the width of everything manually
+        if (node.lastMove() != null) {
+            addMove(node, showMoveNumber, level, inlineVariation, true);
+            showMoveNumber = false;
+        }
+
+        while (node.hasMoves()) {
+            List<Move> moves = node.moves();
+            if (moves.size() == 1) {
+                addMove(node.mainNode(), showMoveNumber, level, inlineVariation, false);
+                showMoveNumber = false;
+            } else {
+                if (inlineVariation) throw new RuntimeException("Found variations in an inline variation");
+                if (level == 0) {
+                    // Show main move on existing line, but then one new paragraph per sub-line,
+                    // each paragraph starting with [ and ending with ]
+                    addMove(node.mainNode(), showMoveNumber, level, false, false);
+
+                    for (int i = 1; i < moves.size(); i++) {
+                        addNewRow(level + 1);
+                        addText("[", level + 1);
+                        generateMoveControls(node.children().get(i), true, level + 1, false, linePrefix);
+                        addText("]", level + 1);
+                    }
+                    addNewRow(level);
+                    showMoveNumber = true;
+                } else if (allVariationsAreSingleLine(node)) {
+                    // Show the alternatives inline, within () and separated by ;
+                    addMove(node.mainNode(), showMoveNumber, level, false, false);
+
+                    addText("(", level, 6.0, 0.0, "last-line");
+                    pullDownLastIfEOL = true;
+                    for (int i = 1; i < moves.size(); i++) {
+                        if (i > 1) addText(";", level, 0.0, 3.0, "last-line");
+                        generateMoveControls(node.children().get(i), true, level, true, linePrefix);
+                    }
+                    addText(")", level, "last-line");
+                    showMoveNumber = true;
+                } else {
+                    // Subvariations are marked with letters and digits alternatively for each level, e.g. "B1c"
+                    // The order is: [A-Z], [1-9], [a-z], [1-9], [1-9] and repeat digits
+                    // But replace [1-9] with [a-z] if there are 10 or more lines at that level
+                    // It won't look pretty if there are more than 26 lines, but CB has the same issue
+                    char startChar = '1';
+                    if (level == 1) startChar = 'A';
+                    if (level == 3) startChar = 'a';
+                    if (startChar == '1' && moves.size() >= 10) startChar = 'a';
+
+                    for (int i = 0; i < moves.size(); i++) {
+                        if (i > 0) addText(";", level + 1);
+                        addNewRow(level + 1);
+
+                        String newLinePrefix = linePrefix + (char) (startChar+i);
+                        addText(String.format("%s)", newLinePrefix), level + 1, "variation-name");
+                        // The main line goes last
+                        generateMoveControls(node.children().get((i+1) % moves.size()), true, level + 1, false, newLinePrefix);
+
+                    }
+                    break;
+                }
+            }
+            node = node.mainNode();
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package se.yarin.opencbmplayer;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An immutable description of a single row in the notation
+ */
+public class NotationRow {
+    private final int level;
+    private final List<NotationItem> items;
+
+    public NotationRow(int level, List<NotationItem> items) {
+        this.level = level;
+        this.items = Collections.unmodifiableList(items);
+    }
+
+    /**
+     * @return the variation depth of the row, which determines the indentation
+     */
+    public int getLevel() {
+        return level;
+    }
+
+    public List<NotationItem> getItems() {
+        return items;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        NotationRow that = (NotationRow) o;
+        return level == that.level && items.equals(that.items);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * level + items.hashCode();
+    }
+}
@@ -0,0 +1,224 @@
+package se.yarin.opencbmplayer;
+
+import se.yarin.chess.*;
+import se.yarin.chess.Date;
+import se.yarin.chess.annotations.Annotations;
+import se.yarin.chess.annotations.CommentaryAfterMoveAnnotation;
+import se.yarin.chess.annotations.CommentaryBeforeMoveAnnotation;
+import se.yarin.chess.annotations.SymbolAnnotation;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.*;
+
+/**
+ * Writes games in PGN export format. Moves can be given the time they were shown in a lecture,
+ * which is written as a {@code [%evt t=mm:ss]} command in the comment after the move.
+ */
+public class PgnWriter {
+    private static final int MAX_LINE_LENGTH = 79;
+    private static final Set<String> PGN_SUFFIXES = new HashSet<>(Arrays.asList("!", "?", "!!", "??", "!?", "?!"));
+    private static final Set<String> PGN_RESULTS = new HashSet<>(Arrays.asList("1-0", "0-1", "1/2-1/2", "*"));
+
+    private final Writer out;
+    private final StringBuilder line = new StringBuilder();
+
+    public PgnWriter(Writer out) {
+        this.out = out;
+    }
+
+    /**
+     * Gets the PGN tags of a game header, starting with the seven tag roster
+     */
+    public static Map<String, String> tagsOf(GameHeaderModel header) {
+        Map<String, String> tags = new LinkedHashMap<>();
+        tags.put("Event", orUnknown(header.getEvent()));
+        tags.put("Site", "?");
+        tags.put("Date", dateOf(header.getDate()));
+        Integer round = header.getRound();
+        tags.put("Round", round == null || round == 0 ? "?" : round.toString());
+        tags.put("White", orUnknown(header.getWhite()));
+        tags.put("Black", orUnknown(header.getBlack()));
+        tags.put("Result", resultOf(header.getResult()));
+        if (header.getWhiteElo() != null && header.getWhiteElo() > 0) {
+            tags.put("WhiteElo", header.getWhiteElo().toString());
+        }
+        if (header.getBlackElo() != null && header.getBlackElo() > 0) {
+            tags.put("BlackElo", header.getBlackElo().toString());
+        }
+        if (header.getEco() != null && header.getEco().toString().length() > 0) {
+            tags.put("ECO", header.getEco().toString());
+        }
+        if (header.getAnnotator() != null && header.getAnnotator().length() > 0) {
+            tags.put("Annotator", header.getAnnotator());
+        }
+        return tags;
+    }
+
+    /**
+     * Gets the PGN result. Forfeits are written as the result they count as;
+     * anything PGN can't express is written as unknown.
+     */
+    static String resultOf(GameResult result) {
+        if (result == null) {
+            return "*";
+        }
+        switch (result) {
+            case WHITE_WINS:
+            case WHITE_WINS_ON_FORFEIT:
+                return "1-0";
+            case BLACK_WINS:
+            case BLACK_WINS_ON_FORFEIT:
+                return "0-1";
+            case DRAW:
+            case DRAW_ON_FORFEIT:
+                return "1/2-1/2";
+            default:
+                return "*";
+        }
+    }
+
+    /**
+     * Gets the PGN date, YYYY.MM.DD, with question marks for the unknown parts
+     */
+    static String dateOf(Date date) {
+        if (date == null) {
+            return "????.??.??";
+        }
+        return (date.year() == 0 ? "????" : String.format("%04d", date.year())) + "." +
+                (date.month() == 0 ? "??" : String.format("%02d", date.month())) + "." +
+                (date.day() == 0 ? "??" : String.format("%02d", date.day()));
+    }
+
+    private static String orUnknown(String s) {
+        return s == null || s.isEmpty() ? "?" : s;
+    }
+
+    /**
+     * Writes a game
+     * @param tags the PGN tags, see {@link #tagsOf(GameHeaderModel)}
+     * @param root the start position of the game
+     * @param timestamps the time (in milliseconds) each node was first shown; nodes without a time are allowed
+     */
+    public void writeGame(Map<String, String> tags, GameMovesModel.Node root,
+                          Map<GameMovesModel.Node, Integer> timestamps) throws IOException {
+        for (Map.Entry<String, String> tag : tags.entrySet()) {
+            out.write(String.format("[%s \"%s\"]\n", tag.getKey(), escape(tag.getValue())));
+        }
+        out.write("\n");
+
+        writeComment(commentAfter(root, timestamps));
+        writeLine(root, true, timestamps);
+        // The termination marker must be one of the four results, whatever the tag says
+        String result = tags.get("Result");
+        writeToken(PGN_RESULTS.contains(result) ? result : "*");
+        flushLine();
+        out.write("\n");
+    }
+
+    // Writes the moves from the given position, following the main line, with the variations in parentheses
+    private void writeLine(GameMovesModel.Node node, boolean showMoveNumber,
+                           Map<GameMovesModel.Node, Integer> timestamps) throws IOException {
+        while (node.hasMoves()) {
+            List<GameMovesModel.Node> children = node.children();
+            // A black move after a comment or a variation needs its move number again
+            showMoveNumber = writeMove(children.get(0), showMoveNumber, timestamps);
+            for (int i = 1; i < children.size(); i++) {
+                writeToken("(");
+                boolean commented = writeMove(children.get(i), true, timestamps);
+                writeLine(children.get(i), commented, timestamps);
+                writeToken(")");
+                showMoveNumber = true;
+            }
+            node = children.get(0);
+        }
+    }
+
+    // Returns true if a comment was written after the move
+    private boolean writeMove(GameMovesModel.Node node, boolean showMoveNumber,
+                              Map<GameMovesModel.Node, Integer> timestamps) throws IOException {
+        Annotations annotations = node.getAnnotations();
+        CommentaryBeforeMoveAnnotation before = annotations.getAnnotation(CommentaryBeforeMoveAnnotation.class);
+        if (before != null && writeComment(before.getCommentary())) {
+            showMoveNumber = true;
+        }
+
+        StringBuilder move = new StringBuilder();
+        Player moveColor = node.parent().position().playerToMove();
+        if (moveColor == Player.WHITE) {
+            move.append(Chess.plyToMoveNumber(node.parent().ply())).append(".");
+        } else if (showMoveNumber) {
+            move.append(Chess.plyToMoveNumber(node.parent().ply())).append("...");
+        }
+        move.append(node.lastMove().toSAN());
+
+        // Only the traditional suffixes are allowed in the SAN; other symbols go into the comment
+        String symbols = "";
+        SymbolAnnotation symbolAnnotation = annotations.getAnnotation(SymbolAnnotation.class);
+        if (symbolAnnotation != null) {
+            String suffix = symbolAnnotation.getMoveComment().toUnicodeString();
+            if (PGN_SUFFIXES.contains(suffix)) {
+                move.append(suffix);
+            } else {
+                symbols += suffix;
+            }
+            symbols = symbolAnnotation.getMovePrefix().toUnicodeString() + symbols +
+                    symbolAnnotation.getLineEvaluation().toUnicodeString();
+        }
+        writeToken(move.toString());
+
+        String comment = commentAfter(node, timestamps);
+        if (!symbols.isEmpty()) {
+            comment = comment == null ? symbols : symbols + " " + comment;
+        }
+        return writeComment(comment);
+    }
+
+    private String commentAfter(GameMovesModel.Node node, Map<GameMovesModel.Node, Integer> timestamps) {
+        Integer time = timestamps.get(node);
+        CommentaryAfterMoveAnnotation after = node.getAnnotations().getAnnotation(CommentaryAfterMoveAnnotation.class);
+        String comment = after == null ? null : after.getCommentary();
+        if (time == null) {
+            return comment;
+        }
+        String command = String.format("[%%evt t=%d:%02d]", time / 1000 / 60, time / 1000 % 60);
+        return comment == null ? command : command + " " + comment;
+    }
+
+    // Returns true if a comment was written
+    private boolean writeComment(String comment) throws IOException {
+        if (comment == null || comment.trim().isEmpty()) {
+            return false;
+        }
+        // A comment can't contain the closing brace; the words are wrapped like any other token
+        String[] words = comment.replace('}', ')').trim().split("\\s+");
+        words[0] = "{" + words[0];
+        words[words.length - 1] = words[words.length - 1] + "}";
+        for (String word : words) {
+            writeToken(word);
+        }
+        return true;
+    }
+
+    private void writeToken(String token) throws IOException {
+        if (line.length() > 0 && line.length() + 1 + token.length() > MAX_LINE_LENGTH) {
+            flushLine();
+        }
+        if (line.length() > 0 && !token.equals(")") && line.charAt(line.length() - 1) != '(') {
+            line.append(' ');
+        }
+        line.append(token);
+    }
+
+    private void flushLine() throws IOException {
+        if (line.length() > 0) {
+            out.write(line.toString());
+            out.write("\n");
+            line.setLength(0);
+        }
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+}
@@ -0,0 +1,105 @@
+package se.yarin.opencbmplayer;
+
+import jdk.jfr.*;
+
+/**
+ * Java Flight Recorder events for the player internals, for correlating individual hiccups with
+ * GC and thread activity. The events are only recorded while a recording with them enabled is running,
+ * e.g. when the player is started with --jfr; otherwise they cost next to nothing.
+ */
+public final class PlayerEvents {
+    private static final String CATEGORY = "OpenCBMPlayer";
+
+    private PlayerEvents() {
+    }
+
+    @Name("se.yarin.opencbmplayer.FrameDisplay")
+    @Label("Frame Display")
+    @Description("A decoded video frame uploaded to the image on the FX thread")
+    @Category({CATEGORY, "Video"})
+    public static class FrameDisplay extends Event {
+        @Label("Width")
+        public int width;
+
+        @Label("Height")
+        public int height;
+
+        @Label("Queue Latency")
+        @Description("Time from the frame being decoded until the FX thread started uploading it")
+        @Timespan(Timespan.NANOSECONDS)
+        public long queueLatency;
+
+        @Label("Pixel Buffer")
+        public boolean pixelBuffer;
+    }
+
+    @Name("se.yarin.opencbmplayer.Seek")
+    @Label("Seek")
+    @Description("The video and the timeline moved to a new time")
+    @Category({CATEGORY, "Timeline"})
+    public static class Seek extends Event {
+        @Label("From Time")
+        @Timespan(Timespan.MILLISECONDS)
+        public long fromTime;
+
+        @Label("To Time")
+        @Timespan(Timespan.MILLISECONDS)
+        public long toTime;
+
+        @Label("Timeline Loaded")
+        @Description("False if the timeline is still loading, in which case only the video was moved")
+        public boolean timelineLoaded;
+    }
+
+    @Name("se.yarin.opencbmplayer.TimelineApply")
+    @Label("Timeline Apply")
+    @Description("Timeline events applied to the game model")
+    @Category({CATEGORY, "Timeline"})
+    public static class TimelineApply extends Event {
+        @Label("From Time")
+        @Timespan(Timespan.MILLISECONDS)
+        public long fromTime;
+
+        @Label("To Time")
+        @Timespan(Timespan.MILLISECONDS)
+        public long toTime;
+
+        @Label("Events Applied")
+        @Description("Only counted when played forward")
+        public int eventsApplied;
+
+        @Label("Seek")
+        @Description("True if the timeline was seeked, false if it was played forward along with the video")
+        public boolean seek;
+    }
+
+    @Name("se.yarin.opencbmplayer.BoardRedraw")
+    @Label("Board Redraw")
+    @Category({CATEGORY, "Rendering"})
+    public static class BoardRedraw extends Event {
+        @Label("Full Redraw")
+        @Description("True if all layers were redrawn, e.g. after a resize")
+        public boolean fullRedraw;
+
+        @Label("Squares Redrawn")
+        public int squaresRedrawn;
+    }
+
+    @Name("se.yarin.opencbmplayer.NotationLayout")
+    @Label("Notation Layout")
+    @Description("The notation of the game laid out into rows on the background thread")
+    @Category({CATEGORY, "Rendering"})
+    public static class NotationLayout extends Event {
+        @Label("Rows")
+        public int rows;
+
+        @Label("Moves")
+        public int moves;
+
+        @Label("Items")
+        public int items;
+
+        @Label("Label Width Cache Misses")
+        public long labelCacheMisses;
+    }
+}
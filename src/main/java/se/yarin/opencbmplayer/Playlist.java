@@ -0,0 +1,92 @@
+package se.yarin.opencbmplayer;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The chapters of a course, in the order they should be played
+ */
+public class Playlist {
+    private static final Pattern NUMBER = Pattern.compile("\\d+");
+
+    private final List<String> files;
+    private int current = -1;
+
+    public Playlist(List<String> files) {
+        this.files = Collections.unmodifiableList(new ArrayList<>(files));
+    }
+
+    /**
+     * Creates a playlist of all media files in a directory, sorted so that
+     * numbered chapters come in numerical order (2.wmv before 10.wmv)
+     */
+    public static Playlist fromDirectory(File dir) {
+        File[] mediaFiles = dir.listFiles((d, name) -> name.toLowerCase(Locale.ROOT).endsWith(".wmv"));
+        if (mediaFiles == null) {
+            mediaFiles = new File[0];
+        }
+        Arrays.sort(mediaFiles, Comparator.comparing(File::getName, Playlist::compareNatural));
+        List<String> files = new ArrayList<>();
+        for (File file : mediaFiles) {
+            files.add(file.getAbsolutePath());
+        }
+        return new Playlist(files);
+    }
+
+    // Compares names with the numbers in them compared by value
+    static int compareNatural(String a, String b) {
+        Matcher ma = NUMBER.matcher(a), mb = NUMBER.matcher(b);
+        int ia = 0, ib = 0;
+        while (ma.find(ia) && mb.find(ib)) {
+            int cmp = a.substring(ia, ma.start()).compareToIgnoreCase(b.substring(ib, mb.start()));
+            if (cmp != 0) return cmp;
+            // Compare by value without parsing, so numbers of any length work
+            String na = ma.group().replaceFirst("^0+(?=.)", ""), nb = mb.group().replaceFirst("^0+(?=.)", "");
+            cmp = na.length() != nb.length() ? Integer.compare(na.length(), nb.length()) : na.compareTo(nb);
+            if (cmp != 0) return cmp;
+            ia = ma.end();
+            ib = mb.end();
+        }
+        return a.substring(ia).compareToIgnoreCase(b.substring(ib));
+    }
+
+    public List<String> getFiles() {
+        return files;
+    }
+
+    public boolean isEmpty() {
+        return files.isEmpty();
+    }
+
+    /**
+     * @return the file currently playing, or null if the playlist hasn't started
+     */
+    public String getCurrent() {
+        return current >= 0 && current < files.size() ? files.get(current) : null;
+    }
+
+    /**
+     * @return the file after the current one, or null if the current file is the last one
+     */
+    public String peekNext() {
+        return current + 1 < files.size() ? files.get(current + 1) : null;
+    }
+
+    /**
+     * Advances to the next file
+     * @return the next file, or null if the current file is the last one
+     */
+    public String next() {
+        if (current + 1 >= files.size()) {
+            return null;
+        }
+        return files.get(++current);
+    }
+}
@@ -0,0 +1,56 @@
+package se.yarin.opencbmplayer;
+
+import se.yarin.chess.Player;
+import se.yarin.chess.Position;
+import se.yarin.chess.Stone;
+
+import java.util.SplittableRandom;
+
+/**
+ * Computes 64-bit Zobrist hashes of positions, from the pieces on the board and the side to move.
+ * The keys are generated from a fixed seed so hashes stored on disk stay valid between runs.
+ */
+public final class PositionHasher {
+    private static final long SEED = 0x6f70656e63626dL;
+
+    // Indexed by piece (0-5 for white, 6-11 for black) * 64 + square
+    private static final long[] PIECE_KEYS = new long[12 * 64];
+    private static final long BLACK_TO_MOVE_KEY;
+
+    static {
+        SplittableRandom random = new SplittableRandom(SEED);
+        for (int i = 0; i < PIECE_KEYS.length; i++) {
+            PIECE_KEYS[i] = random.nextLong();
+        }
+        BLACK_TO_MOVE_KEY = random.nextLong();
+    }
+
+    private PositionHasher() {
+    }
+
+    public static long hash(Position position) {
+        long hash = position.playerToMove() == Player.BLACK ? BLACK_TO_MOVE_KEY : 0;
+        for (int y = 0; y < 8; y++) {
+            for (int x = 0; x < 8; x++) {
+                Stone stone = position.stoneAt(x, y);
+                if (stone.isNoStone()) continue;
+                hash ^= PIECE_KEYS[pieceIndex(stone) * 64 + x * 8 + y];
+            }
+        }
+        return hash;
+    }
+
+    private static int pieceIndex(Stone stone) {
+        int piece;
+        switch (stone.toPiece()) {
+            case PAWN:   piece = 0; break;
+            case KNIGHT: piece = 1; break;
+            case BISHOP: piece = 2; break;
+            case ROOK:   piece = 3; break;
+            case QUEEN:  piece = 4; break;
+            case KING:   piece = 5; break;
+            default: throw new IllegalArgumentException("Not a piece: " + stone);
+        }
+        return stone.toPlayer() == Player.WHITE ? piece : piece + 6;
+    }
+}
@@ -0,0 +1,69 @@
+package se.yarin.opencbmplayer;
+
+import javafx.collections.FXCollections;
+import javafx.scene.Scene;
+import javafx.scene.control.Label;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
+import javafx.scene.layout.BorderPane;
+import javafx.stage.Stage;
+import javafx.stage.Window;
+
+import java.io.File;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * A window listing the moments in the library where a position is shown
+ */
+public class PositionHitsWindow {
+    private final Stage stage = new Stage();
+    private final ListView<PositionIndex.Hit> hitList = new ListView<>();
+    private final Label statusLabel = new Label();
+
+    /**
+     * @param owner the main window
+     * @param onOpen called with the hit to open
+     */
+    public PositionHitsWindow(Window owner, Consumer<PositionIndex.Hit> onOpen) {
+        hitList.setCellFactory(listView -> new ListCell<PositionIndex.Hit>() {
+            @Override
+            protected void updateItem(PositionIndex.Hit hit, boolean empty) {
+                super.updateItem(hit, empty);
+                if (empty || hit == null) {
+                    setText(null);
+                } else {
+                    int time = hit.getTimestamp();
+                    File file = new File(hit.getPath());
+                    setText(String.format("%d:%02d  %s / %s", time/1000/60, time/1000%60,
+                            file.getParentFile() == null ? "" : file.getParentFile().getName(), file.getName()));
+                }
+            }
+        });
+        hitList.setOnMouseClicked(event -> {
+            PositionIndex.Hit hit = hitList.getSelectionModel().getSelectedItem();
+            if (event.getClickCount() == 2 && hit != null) {
+                onOpen.accept(hit);
+            }
+        });
+
+        stage.setTitle("Position search");
+        stage.initOwner(owner);
+        stage.setScene(new Scene(new BorderPane(hitList, null, null, statusLabel, null), 500, 300));
+    }
+
+    public void show(List<PositionIndex.Hit> hits) {
+        hitList.setItems(FXCollections.observableArrayList(hits));
+        statusLabel.setText(hits.isEmpty() ? "The position isn't shown in any lecture" :
+                String.format("The position is shown %d times", hits.size()));
+        stage.show();
+        stage.toFront();
+    }
+
+    public void showMessage(String message) {
+        hitList.getItems().clear();
+        statusLabel.setText(message);
+        stage.show();
+        stage.toFront();
+    }
+}
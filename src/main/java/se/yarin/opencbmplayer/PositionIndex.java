@@ -0,0 +1,431 @@
+package se.yarin.opencbmplayer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se.yarin.cbhlib.media.ChessBaseMediaException;
+import se.yarin.cbhlib.media.ChessBaseMediaLoader;
+import se.yarin.chess.GameMovesModel;
+import se.yarin.chess.timeline.GameEventException;
+import se.yarin.chess.timeline.NavigableGameModelTimeline;
+
+import java.io.*;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * An index from position hashes to the moments in the lectures where the positions are shown on the board.
+ * The records are stored sorted by hash in a file that is memory mapped when searching,
+ * so the index is never loaded into the heap.
+ * <p>
+ * A hit is the file and the time the position is shown; seeking the lecture to that time puts the cursor
+ * on the node, so the node path isn't stored; only the ply of the node is.
+ * <p>
+ * Each build writes a new generation of the index to a new file in the index directory, so a file
+ * is never replaced while it's mapped. Older generations are deleted once they're no longer open.
+ *
+ * File layout:
+ * <pre>
+ * header:  magic, version, record count, file count (ints), offset of the file names (long)
+ * records: hash (long), file number, timestamp, ply (ints) - sorted by hash
+ * files:   the media file path (UTF), last modified, file size (longs)
+ * </pre>
+ */
+public class PositionIndex implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(PositionIndex.class);
+
+    private static final int MAGIC = 0x43424d50; // "CBMP"
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 24;
+    private static final int RECORD_SIZE = 20;
+    private static final Pattern GENERATION_FILE = Pattern.compile("(\\d+)\\.index(\\.tmp)?");
+
+    /**
+     * A moment in a lecture where a position is shown
+     */
+    public static class Hit {
+        private final String path;
+        private final int timestamp;
+        private final int ply;
+
+        public Hit(String path, int timestamp, int ply) {
+            this.path = path;
+            this.timestamp = timestamp;
+            this.ply = ply;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public int getTimestamp() {
+            return timestamp;
+        }
+
+        /**
+         * @return the ply of the position in the game shown at that moment
+         */
+        public int getPly() {
+            return ply;
+        }
+    }
+
+    private static class Record {
+        private final long hash;
+        private final int file, timestamp, ply;
+
+        Record(long hash, int file, int timestamp, int ply) {
+            this.hash = hash;
+            this.file = file;
+            this.timestamp = timestamp;
+            this.ply = ply;
+        }
+    }
+
+    private final Path file;
+    private final FileChannel channel;
+    private final MappedByteBuffer records;
+    private final int recordCount;
+    private final List<String> files;
+    private final long[] fileModified;
+    private final long[] fileSizes;
+
+    private PositionIndex(Path file, FileChannel channel, MappedByteBuffer records, int recordCount,
+                          List<String> files, long[] fileModified, long[] fileSizes) {
+        this.file = file;
+        this.channel = channel;
+        this.records = records;
+        this.recordCount = recordCount;
+        this.files = files;
+        this.fileModified = fileModified;
+        this.fileSizes = fileSizes;
+    }
+
+    /**
+     * Opens the latest generation of the index in a directory
+     * @return the index, or null if nothing has been indexed yet
+     */
+    public static PositionIndex openLatest(Path directory) throws IOException {
+        Path latest = generationFile(directory, latestGeneration(directory));
+        return Files.exists(latest) ? open(latest) : null;
+    }
+
+    /**
+     * Opens an index previously created by {@link #build(Collection, Path, ForkJoinPool)}
+     */
+    public static PositionIndex open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.BIG_ENDIAN);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw new IOException("Not a position index: " + file);
+            }
+            int recordCount = buffer.getInt(8);
+            int fileCount = buffer.getInt(12);
+            long filesOffset = buffer.getLong(16);
+            if (filesOffset != HEADER_SIZE + (long) recordCount * RECORD_SIZE || filesOffset > buffer.capacity()) {
+                throw new IOException("Truncated position index: " + file);
+            }
+
+            List<String> files = new ArrayList<>(fileCount);
+            long[] fileModified = new long[fileCount], fileSizes = new long[fileCount];
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+                for (long remaining = filesOffset; remaining > 0; ) {
+                    long skipped = in.skip(remaining);
+                    if (skipped <= 0) {
+                        throw new EOFException("Truncated position index: " + file);
+                    }
+                    remaining -= skipped;
+                }
+                for (int i = 0; i < fileCount; i++) {
+                    files.add(in.readUTF());
+                    fileModified[i] = in.readLong();
+                    fileSizes[i] = in.readLong();
+                }
+            }
+            return new PositionIndex(file, channel, buffer, recordCount, files, fileModified, fileSizes);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the file the index is mapped from
+     */
+    public Path getFile() {
+        return file;
+    }
+
+    public int getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Finds all moments where a position is shown
+     * @param hash the hash of the position, as given by {@link PositionHasher}
+     * @return the hits, ordered by file and time
+     */
+    public List<Hit> find(long hash) {
+        if (!channel.isOpen()) {
+            throw new IllegalStateException("The position index is closed");
+        }
+        // Binary search for the first record with the hash
+        int lo = 0, hi = recordCount;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (hashAt(mid) < hash) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+
+        List<Hit> hits = new ArrayList<>();
+        for (int i = lo; i < recordCount && hashAt(i) == hash; i++) {
+            int offset = offsetOf(i);
+            hits.add(new Hit(files.get(records.getInt(offset + 8)), records.getInt(offset + 12), records.getInt(offset + 16)));
+        }
+        return hits;
+    }
+
+    private long hashAt(int record) {
+        return records.getLong(offsetOf(record));
+    }
+
+    private static int offsetOf(int record) {
+        // open() has checked that all records are within the mapped buffer
+        return Math.toIntExact(HEADER_SIZE + (long) record * RECORD_SIZE);
+    }
+
+    /**
+     * Closes the index and unmaps the file, so that it can be deleted also on platforms where mapped files
+     * can't be. Must not be called while another thread is searching the index.
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+        unmap(records);
+    }
+
+    /**
+     * Releases the mapping right away instead of when the buffer is garbage collected.
+     * There is no public API for this, so it's done through sun.misc.Unsafe if it's available.
+     */
+    private static void unmap(MappedByteBuffer buffer) {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafeClass.getMethod("invokeCleaner", ByteBuffer.class).invoke(field.get(null), buffer);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            log.debug("Failed to unmap the position index; it's unmapped when garbage collected", e);
+        }
+    }
+
+    /**
+     * Deletes all generations of the index older than the given one, and any abandoned temporary files.
+     * Files that can't be deleted, e.g. because they're still mapped, are left for the next time.
+     */
+    public static void deleteOlderGenerations(Path directory, Path current) {
+        long currentGeneration = generationOf(current);
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path path : stream) {
+                long generation = generationOf(path);
+                if (generation >= 0 && generation < currentGeneration) {
+                    try {
+                        Files.deleteIfExists(path);
+                    } catch (IOException e) {
+                        log.debug("Failed to delete the old position index " + path, e);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Failed to delete old position indexes in " + directory, e);
+        }
+    }
+
+    private static long generationOf(Path path) {
+        Matcher matcher = GENERATION_FILE.matcher(path.getFileName().toString());
+        return matcher.matches() ? Long.parseLong(matcher.group(1)) : -1;
+    }
+
+    private static long latestGeneration(Path directory) throws IOException {
+        long latest = 0;
+        if (Files.isDirectory(directory)) {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.index")) {
+                for (Path path : stream) {
+                    latest = Math.max(latest, generationOf(path));
+                }
+            }
+        }
+        return latest;
+    }
+
+    private static Path generationFile(Path directory, long generation) {
+        return directory.resolve(generation + ".index");
+    }
+
+    /**
+     * Builds a new generation of the position index from the media files in the library.
+     * The positions of files that are unchanged since the latest generation are copied from it;
+     * only the timelines of new and modified files are replayed, in parallel.
+     * @param entries the media files to index
+     * @param directory the directory with the generations of the index
+     * @param pool the pool used for replaying the timelines
+     * @return the file with the new generation, to be opened with {@link #open(Path)}
+     */
+    public static Path build(Collection<LibraryEntry> entries, Path directory, ForkJoinPool pool) throws IOException {
+        long start = System.currentTimeMillis();
+        List<LibraryEntry> files = new ArrayList<>(entries);
+        long generation = latestGeneration(directory);
+
+        PositionIndex previous = null;
+        Path previousFile = generationFile(directory, generation);
+        if (Files.exists(previousFile)) {
+            try {
+                previous = open(previousFile);
+            } catch (IOException e) {
+                log.warn("Failed to open the previous position index " + previousFile + "; indexing all files", e);
+            }
+        }
+
+        List<Record> all = new ArrayList<>();
+        List<Integer> changed = new ArrayList<>();
+        try {
+            // The file numbers in the previous index of the unchanged files, mapped to their new numbers
+            int[] kept = new int[previous == null ? 0 : previous.files.size()];
+            Arrays.fill(kept, -1);
+            Map<String, Integer> previousNumbers = new HashMap<>();
+            for (int i = 0; i < kept.length; i++) {
+                previousNumbers.put(previous.files.get(i), i);
+            }
+            for (int i = 0; i < files.size(); i++) {
+                LibraryEntry entry = files.get(i);
+                Integer number = previousNumbers.get(entry.getPath());
+                if (number != null && entry.isUpToDate(previous.fileModified[number], previous.fileSizes[number])) {
+                    kept[number] = i;
+                } else {
+                    changed.add(i);
+                }
+            }
+            if (previous != null) {
+                for (int i = 0; i < previous.recordCount; i++) {
+                    int offset = offsetOf(i);
+                    int file = kept[previous.records.getInt(offset + 8)];
+                    if (file >= 0) {
+                        all.add(new Record(previous.records.getLong(offset), file,
+                                previous.records.getInt(offset + 12), previous.records.getInt(offset + 16)));
+                    }
+                }
+            }
+        } finally {
+            if (previous != null) {
+                previous.close();
+            }
+        }
+
+        try {
+            all.addAll(pool.submit(() -> changed.parallelStream()
+                    .map(i -> replay(files.get(i).getPath(), i))
+                    .flatMap(List::stream)
+                    .collect(Collectors.toList())).get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while building the position index");
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to build the position index", e.getCause());
+        }
+        all.sort(Comparator.comparingLong((Record r) -> r.hash)
+                .thenComparingInt(r -> r.file)
+                .thenComparingInt(r -> r.timestamp));
+        long filesOffset = HEADER_SIZE + (long) all.size() * RECORD_SIZE;
+        if (filesOffset > Integer.MAX_VALUE) {
+            // The records must fit in a single mapped buffer
+            throw new IOException("Too many positions to index: " + all.size());
+        }
+
+        Files.createDirectories(directory);
+        Path file = generationFile(directory, generation + 1);
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(all.size());
+            out.writeInt(files.size());
+            out.writeLong(filesOffset);
+            for (Record record : all) {
+                out.writeLong(record.hash);
+                out.writeInt(record.file);
+                out.writeInt(record.timestamp);
+                out.writeInt(record.ply);
+            }
+            for (LibraryEntry entry : files) {
+                out.writeUTF(entry.getPath());
+                out.writeLong(entry.getLastModified());
+                out.writeLong(entry.getFileSize());
+            }
+        }
+        // A new file, so this never replaces a file that is mapped
+        Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE);
+
+        long stop = System.currentTimeMillis();
+        log.info(String.format("Built position index with %d positions from %d media files, %d of them replayed, in %d ms",
+                all.size(), files.size(), changed.size(), stop - start));
+        return file;
+    }
+
+    /**
+     * Replays a timeline and records every position the cursor visits.
+     * A position is recorded once all events at the same timestamp have been applied,
+     * and only if it differs from the previous one.
+     */
+    private static List<Record> replay(String path, int fileNumber) {
+        try {
+            return replay(path, fileNumber, ChessBaseMediaLoader.loadMedia(new File(path)));
+        } catch (IOException | ChessBaseMediaException e) {
+            log.warn("Failed to parse " + path + ": " + e.getMessage());
+        } catch (RuntimeException e) {
+            // A corrupt file must not fail the whole index
+            log.warn("Failed to index " + path, e);
+        }
+        return Collections.emptyList();
+    }
+
+    private static List<Record> replay(String path, int fileNumber, NavigableGameModelTimeline timeline) {
+        List<Record> records = new ArrayList<>();
+        long lastHash = 0;
+        timeline.jumpTo(0);
+        while (timeline.getNextEventTimestamp() != Integer.MAX_VALUE) {
+            try {
+                timeline.applyNextEvent();
+            } catch (GameEventException e) {
+                log.debug("Failed to apply timeline event in " + path, e);
+            }
+            GameMovesModel.Node cursor = timeline.getModel().cursor();
+            if (cursor == null || timeline.getNextEventTimestamp() == timeline.getCurrentTimestamp()) {
+                continue;
+            }
+            long hash = PositionHasher.hash(cursor.position());
+            if (records.isEmpty() || hash != lastHash) {
+                records.add(new Record(hash, fileNumber, timeline.getCurrentTimestamp(), cursor.ply()));
+                lastHash = hash;
+            }
+        }
+        return records;
+    }
+}
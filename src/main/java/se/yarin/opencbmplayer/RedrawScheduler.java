@@ -0,0 +1,124 @@
+package se.yarin.opencbmplayer;
+
+import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Coalesces redraw requests so that every registered component is redrawn at most once per frame.
+ * Components are marked as dirty with {@link Redraw#invalidate()}, which is cheap and can be called
+ * any number of times; the actual redraw is done on the next pulse.
+ */
+public class RedrawScheduler {
+    private static final Logger log = LoggerFactory.getLogger(RedrawScheduler.class);
+
+    /**
+     * A component that can be redrawn through the scheduler
+     */
+    public final class Redraw {
+        private final String name;
+        private final Runnable action;
+        private boolean dirty;
+
+        private Redraw(String name, Runnable action) {
+            this.name = name;
+            this.action = action;
+        }
+
+        /**
+         * Marks the component as dirty; it will be redrawn on the next frame
+         */
+        public void invalidate() {
+            if (!Platform.isFxApplicationThread()) {
+                Platform.runLater(this::invalidate);
+                return;
+            }
+            requested++;
+            if (!dirty) {
+                dirty = true;
+                pending.add(this);
+                if (!timerRunning) {
+                    timer.start();
+                    timerRunning = true;
+                }
+            }
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    // All fields are only accessed from the FX thread
+    private final List<Redraw> pending = new ArrayList<>();
+    private final AnimationTimer timer;
+    private boolean timerRunning;
+    private long requested, performed;
+
+    public RedrawScheduler() {
+        timer = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                redrawPending();
+            }
+        };
+    }
+
+    /**
+     * Registers a component
+     * @param name the name of the component, used for logging
+     * @param action redraws the component; called on the FX thread
+     * @return a handle used for invalidating the component
+     */
+    public Redraw register(String name, Runnable action) {
+        return new Redraw(name, action);
+    }
+
+    private void redrawPending() {
+        if (pending.isEmpty()) {
+            // Nothing was invalidated during the last frame, so stop listening to pulses until there is
+            timer.stop();
+            timerRunning = false;
+            log.debug(String.format("Idle after %d redraws, %d requests coalesced", performed, getCoalescedCount()));
+            return;
+        }
+
+        // A redraw may invalidate other components; those are redrawn on the next frame
+        List<Redraw> redraws = new ArrayList<>(pending);
+        pending.clear();
+        for (Redraw redraw : redraws) {
+            redraw.dirty = false;
+            performed++;
+            try {
+                redraw.action.run();
+            } catch (RuntimeException e) {
+                log.error("Failed to redraw " + redraw.name, e);
+            }
+        }
+    }
+
+    /**
+     * @return the number of times a redraw has been requested
+     */
+    public long getRequestedCount() {
+        return requested;
+    }
+
+    /**
+     * @return the number of redraws actually performed
+     */
+    public long getPerformedCount() {
+        return performed;
+    }
+
+    /**
+     * @return the number of redraw requests that were merged into another redraw of the same component
+     */
+    public long getCoalescedCount() {
+        return requested - performed;
+    }
+}
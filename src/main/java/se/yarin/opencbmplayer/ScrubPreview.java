@@ -0,0 +1,80 @@
+package se.yarin.opencbmplayer;
+
+import javafx.geometry.Insets;
+import javafx.scene.Node;
+import javafx.scene.control.Label;
+import javafx.scene.image.ImageView;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.VBox;
+import javafx.stage.Popup;
+import se.yarin.chess.GameMovesModel;
+
+/**
+ * A popup above the time slider showing the video frame and the board position at a time,
+ * without seeking in the video
+ */
+public class ScrubPreview {
+    private final double BOARD_SIZE = 160;
+    private final double OFFSET_Y = 12;
+
+    private final Popup popup = new Popup();
+    private final ImageView frameView = new ImageView();
+    private final BoardPane board = new BoardPane();
+    private final Label timeLabel = new Label();
+    private final VBox content;
+    private WritableImage frame;
+
+    public ScrubPreview() {
+        board.setMinSize(BOARD_SIZE, BOARD_SIZE);
+        board.setPrefSize(BOARD_SIZE, BOARD_SIZE);
+        board.setMaxSize(BOARD_SIZE, BOARD_SIZE);
+
+        HBox images = new HBox(4, frameView, board);
+        content = new VBox(2, images, timeLabel);
+        content.setPadding(new Insets(4));
+        content.setStyle("-fx-background-color: rgba(0, 0, 0, 0.8);");
+        timeLabel.setStyle("-fx-text-fill: white;");
+        content.setMouseTransparent(true);
+        popup.getContent().add(content);
+    }
+
+    /**
+     * Shows the preview centered above the given point
+     * @param anchor the node the preview belongs to
+     * @param screenX the horizontal screen position to center the preview on
+     * @param screenY the screen position the preview is shown above
+     * @param time the time to show
+     * @param strip the thumbnails of the video, or null if there are none
+     * @param position the board position at the time, or null if unknown
+     */
+    public void show(Node anchor, double screenX, double screenY, int time,
+                     ThumbnailStrip strip, GameMovesModel.Node position) {
+        int[] pixels = strip == null ? null : strip.getNearest(time);
+        if (pixels != null) {
+            int width = strip.getWidth(), height = strip.getHeight();
+            if (frame == null || frame.getWidth() != width || frame.getHeight() != height) {
+                frame = new WritableImage(width, height);
+                frameView.setImage(frame);
+            }
+            frame.getPixelWriter().setPixels(0, 0, width, height, PixelFormat.getIntArgbInstance(), pixels, 0, width);
+        }
+        frameView.setVisible(pixels != null);
+        frameView.setManaged(pixels != null);
+        board.setPosition(position);
+        timeLabel.setText(String.format("%d:%02d", time/1000/60, time/1000%60));
+
+        if (!popup.isShowing()) {
+            popup.show(anchor.getScene().getWindow());
+        }
+        content.applyCss();
+        content.layout();
+        popup.setX(screenX - content.prefWidth(-1) / 2);
+        popup.setY(screenY - content.prefHeight(-1) - OFFSET_Y);
+    }
+
+    public void hide() {
+        popup.hide();
+    }
+}
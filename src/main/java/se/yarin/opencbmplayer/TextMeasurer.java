@@ -0,0 +1,128 @@
+package se.yarin.opencbmplayer;
+
+import javafx.application.Platform;
+import javafx.scene.Scene;
+import javafx.scene.layout.HBox;
+import javafx.scene.text.Font;
+import javafx.scene.text.Text;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Measures the width of texts as they would be rendered with a given set of style classes.
+ * The font of each style class combination is resolved through CSS once, after which
+ * texts are measured directly with that font without involving a scene.
+ * Measured widths are kept in a bounded LRU cache.
+ *
+ * The measurer can be used from any thread. Resolving a new font requires a scene, so that
+ * part is done on the FX thread; a background thread measuring a new style class combination
+ * will block until the FX thread has resolved it.
+ */
+public class TextMeasurer {
+    private static final Logger log = LoggerFactory.getLogger(TextMeasurer.class);
+
+    private final String stylesheet;
+    private final String containerId;
+
+    // The number of style class combinations is small, so this one doesn't need to be bounded
+    private final Map<List<String>, Font> fontCache = new ConcurrentHashMap<>();
+    private final LruCache<String, Double> widthCache;
+    private final Text measureText = new Text();
+
+    private long hits, misses;
+
+    /**
+     * Creates a new text measurer
+     * @param stylesheet the stylesheet that determines the fonts
+     * @param containerId the id of the container the texts are shown in, for id selectors in the stylesheet
+     * @param maxCacheEntries the maximum number of measured widths to cache
+     */
+    public TextMeasurer(String stylesheet, String containerId, int maxCacheEntries) {
+        this.stylesheet = stylesheet;
+        this.containerId = containerId;
+        this.widthCache = new LruCache<>(maxCacheEntries);
+    }
+
+    /**
+     * Determines the width of a text based ONLY on the text and it's style classes (not padding)
+     */
+    public double getWidth(String text, List<String> styleClasses) {
+        String cacheId = styleClasses + "#" + text;
+        synchronized (this) {
+            Double width = widthCache.get(cacheId);
+            if (width != null) {
+                hits++;
+                return width;
+            }
+        }
+
+        // Don't hold the lock while (possibly) waiting for the FX thread
+        Font font = getFont(styleClasses);
+
+        synchronized (this) {
+            misses++;
+            measureText.setFont(font);
+            measureText.setText(text);
+            double width = measureText.getLayoutBounds().getWidth();
+            widthCache.put(cacheId, width);
+            return width;
+        }
+    }
+
+    /**
+     * @return the font a text with the given style classes would have
+     */
+    public Font getFont(List<String> styleClasses) {
+        Font font = fontCache.get(styleClasses);
+        if (font == null) {
+            font = Platform.isFxApplicationThread() ? resolveFont(styleClasses) : resolveFontOnFxThread(styleClasses);
+            fontCache.put(new ArrayList<>(styleClasses), font);
+        }
+        return font;
+    }
+
+    private Font resolveFontOnFxThread(List<String> styleClasses) {
+        FutureTask<Font> task = new FutureTask<>(() -> resolveFont(styleClasses));
+        Platform.runLater(task);
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Interrupted while resolving font");
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Failed to resolve the font for " + styleClasses, e.getCause());
+        }
+    }
+
+    private Font resolveFont(List<String> styleClasses) {
+        Text text = new Text();
+        text.getStyleClass().addAll(styleClasses);
+        HBox container = new HBox(text);
+        container.setId(containerId);
+        Scene scene = new Scene(container);
+        scene.getStylesheets().add(stylesheet);
+        text.applyCss();
+        log.debug("Resolved font for " + styleClasses + ": " + text.getFont());
+        return text.getFont();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized int getCacheSize() {
+        return widthCache.size();
+    }
+}
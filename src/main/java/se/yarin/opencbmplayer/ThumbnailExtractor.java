@@ -0,0 +1,150 @@
+package se.yarin.opencbmplayer;
+
+import com.sun.jna.Memory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.co.caprica.vlcj.component.DirectMediaPlayerComponent;
+import uk.co.caprica.vlcj.player.direct.BufferFormat;
+import uk.co.caprica.vlcj.player.direct.DirectMediaPlayer;
+import uk.co.caprica.vlcj.player.direct.format.RV32BufferFormat;
+
+import java.util.Arrays;
+import java.util.TreeSet;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Extracts thumbnails from a video using a separate media player that is never shown.
+ * Thumbnails are taken at a fixed interval and at the given event times.
+ */
+public class ThumbnailExtractor {
+    private static final Logger log = LoggerFactory.getLogger(ThumbnailExtractor.class);
+
+    private final int THUMBNAIL_WIDTH = 160;
+    private final int THUMBNAIL_INTERVAL_MS = 10000;
+    // Event thumbnails closer than this to another thumbnail are skipped
+    private final int MIN_THUMBNAIL_DISTANCE_MS = 2000;
+    private final int FRAME_TIMEOUT_MS = 3000;
+    // How far from the wanted time a decoded frame may be to be used
+    private final int FRAME_TOLERANCE_MS = 1500;
+
+    private final FrameGrabber grabber = new FrameGrabber(THUMBNAIL_WIDTH);
+
+    /**
+     * Receives the decoded frames, scaled to the thumbnail size
+     */
+    private static class FrameGrabber extends DirectMediaPlayerComponent {
+        private final Object lock = new Object();
+        private volatile int width, height;
+        private int[] frame;
+        private long frameTime;
+        private long frameCount;
+
+        FrameGrabber(int thumbnailWidth) {
+            super((sourceWidth, sourceHeight) -> new RV32BufferFormat(thumbnailWidth,
+                    Math.max(1, thumbnailWidth * sourceHeight / Math.max(1, sourceWidth))));
+        }
+
+        @Override
+        public void display(DirectMediaPlayer mediaPlayer, Memory[] nativeBuffers, BufferFormat bufferFormat) {
+            int[] pixels = nativeBuffers[0].getIntArray(0, bufferFormat.getWidth() * bufferFormat.getHeight());
+            for (int i = 0; i < pixels.length; i++) {
+                pixels[i] |= 0xFF000000; // RV32 leaves the alpha channel empty
+            }
+            long time = mediaPlayer.getTime();
+            synchronized (lock) {
+                width = bufferFormat.getWidth();
+                height = bufferFormat.getHeight();
+                frame = pixels;
+                frameTime = time;
+                frameCount++;
+                lock.notifyAll();
+            }
+        }
+
+        /**
+         * Waits for a new frame close to the given time
+         * @return the frame, or null if there was none within the timeout
+         */
+        int[] grab(long time, long countBefore, long tolerance, long timeout) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + timeout;
+            synchronized (lock) {
+                while (frameCount == countBefore || Math.abs(frameTime - time) > tolerance) {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        return null;
+                    }
+                    lock.wait(remaining);
+                }
+                return frame;
+            }
+        }
+
+        long getFrameCount() {
+            synchronized (lock) {
+                return frameCount;
+            }
+        }
+    }
+
+    /**
+     * Gets the times to take thumbnails at
+     */
+    int[] getThumbnailTimes(int duration, int[] eventTimestamps) {
+        TreeSet<Integer> times = new TreeSet<>();
+        for (int time = 0; time <= duration; time += THUMBNAIL_INTERVAL_MS) {
+            times.add(time);
+        }
+        for (int time : eventTimestamps) {
+            Integer floor = times.floor(time), ceiling = times.ceiling(time);
+            if ((floor == null || time - floor >= MIN_THUMBNAIL_DISTANCE_MS) &&
+                    (ceiling == null || ceiling - time >= MIN_THUMBNAIL_DISTANCE_MS)) {
+                times.add(time);
+            }
+        }
+        return times.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Extracts thumbnails into a strip. Thumbnails already in the strip are not extracted again.
+     * Blocks until done, so this should be called on a background thread.
+     * @param times the times to take thumbnails at
+     * @param cancelled checked between thumbnails; extraction stops if it returns true
+     */
+    public void extract(ThumbnailStrip strip, int[] times, BooleanSupplier cancelled) {
+        long start = System.currentTimeMillis();
+        int extracted = 0, missed = 0;
+        DirectMediaPlayer mp = grabber.getMediaPlayer();
+        mp.mute(true);
+        mp.startMedia(strip.getMediaFile());
+        try {
+            for (int time : times) {
+                if (cancelled.getAsBoolean()) {
+                    break;
+                }
+                if (strip.contains(time)) {
+                    continue;
+                }
+                long count = grabber.getFrameCount();
+                mp.setTime(time);
+                int[] frame = grabber.grab(time, count, FRAME_TOLERANCE_MS, FRAME_TIMEOUT_MS);
+                if (frame == null) {
+                    missed++;
+                    continue;
+                }
+                strip.put(time, Arrays.copyOf(frame, frame.length), grabber.width, grabber.height);
+                extracted++;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            mp.stop();
+        }
+        long stop = System.currentTimeMillis();
+        log.info(String.format("Extracted %d thumbnails (%d missed) from %s in %d ms",
+                extracted, missed, strip.getMediaFile(), stop - start));
+    }
+
+    public void release() {
+        grabber.release();
+    }
+}
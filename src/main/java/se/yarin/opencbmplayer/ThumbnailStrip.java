@@ -0,0 +1,143 @@
+package se.yarin.opencbmplayer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Low resolution frames of a video at different times. Thumbnails can be added by one thread
+ * while they are read by another, so they can be shown while they're still being extracted.
+ *
+ * On disk, the thumbnails are stored as deflated RGB data, together with the path and modification
+ * time of the video so a stale cache is never used.
+ */
+public class ThumbnailStrip {
+    private static final Logger log = LoggerFactory.getLogger(ThumbnailStrip.class);
+
+    private static final int MAGIC = 0x43424d54; // "CBMT"
+    private static final int VERSION = 1;
+
+    private final String mediaFile;
+    private final long lastModified;
+    private volatile int width, height;
+    // Pixels in ARGB format
+    private final ConcurrentNavigableMap<Integer, int[]> thumbnails = new ConcurrentSkipListMap<>();
+
+    public ThumbnailStrip(String mediaFile, long lastModified) {
+        this.mediaFile = mediaFile;
+        this.lastModified = lastModified;
+    }
+
+    public String getMediaFile() {
+        return mediaFile;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int size() {
+        return thumbnails.size();
+    }
+
+    public boolean contains(int time) {
+        return thumbnails.containsKey(time);
+    }
+
+    /**
+     * Adds a thumbnail. All thumbnails in a strip must have the same size.
+     */
+    public void put(int time, int[] pixels, int width, int height) {
+        if (this.width == 0) {
+            this.width = width;
+            this.height = height;
+        } else if (this.width != width || this.height != height) {
+            throw new IllegalArgumentException("Thumbnail size changed");
+        }
+        thumbnails.put(time, pixels);
+    }
+
+    /**
+     * Gets the thumbnail closest to the given time
+     * @return the ARGB pixels, or null if there are no thumbnails
+     */
+    public int[] getNearest(int time) {
+        Map.Entry<Integer, int[]> floor = thumbnails.floorEntry(time), ceiling = thumbnails.ceilingEntry(time);
+        if (floor == null) return ceiling == null ? null : ceiling.getValue();
+        if (ceiling == null) return floor.getValue();
+        return time - floor.getKey() <= ceiling.getKey() - time ? floor.getValue() : ceiling.getValue();
+    }
+
+    public void save(Path file) throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new DeflaterOutputStream(Files.newOutputStream(tmp))))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(mediaFile);
+            out.writeLong(lastModified);
+            out.writeInt(width);
+            out.writeInt(height);
+            out.writeInt(thumbnails.size());
+            byte[] rgb = new byte[width * height * 3];
+            for (Map.Entry<Integer, int[]> entry : thumbnails.entrySet()) {
+                int[] pixels = entry.getValue();
+                for (int i = 0; i < pixels.length; i++) {
+                    rgb[i * 3] = (byte) (pixels[i] >> 16);
+                    rgb[i * 3 + 1] = (byte) (pixels[i] >> 8);
+                    rgb[i * 3 + 2] = (byte) pixels[i];
+                }
+                out.writeInt(entry.getKey());
+                out.write(rgb);
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Loads the thumbnails of a video
+     * @return the thumbnails, or null if there are none stored for this version of the video
+     */
+    public static ThumbnailStrip load(Path file, String mediaFile, long lastModified) {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new InflaterInputStream(Files.newInputStream(file))))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION ||
+                    !in.readUTF().equals(mediaFile) || in.readLong() != lastModified) {
+                return null;
+            }
+            ThumbnailStrip strip = new ThumbnailStrip(mediaFile, lastModified);
+            int width = in.readInt(), height = in.readInt(), count = in.readInt();
+            byte[] rgb = new byte[width * height * 3];
+            for (int i = 0; i < count; i++) {
+                int time = in.readInt();
+                in.readFully(rgb);
+                int[] pixels = new int[width * height];
+                for (int j = 0; j < pixels.length; j++) {
+                    pixels[j] = 0xFF000000 | (rgb[j * 3] & 0xFF) << 16 | (rgb[j * 3 + 1] & 0xFF) << 8 | (rgb[j * 3 + 2] & 0xFF);
+                }
+                strip.put(time, pixels, width, height);
+            }
+            return strip;
+        } catch (IOException e) {
+            log.warn("Failed to read the thumbnail cache " + file, e);
+            return null;
+        }
+    }
+}
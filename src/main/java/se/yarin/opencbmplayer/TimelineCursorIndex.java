@@ -0,0 +1,84 @@
+package se.yarin.opencbmplayer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se.yarin.chess.GameMovesModel;
+import se.yarin.chess.timeline.GameEventException;
+import se.yarin.chess.timeline.NavigableGameModelTimeline;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * An index of a timeline, built by playing through it once: the event timestamps and the node the
+ * cursor is at at each of them, so that what's shown at any time can be looked up without moving
+ * the timeline, e.g. when scrubbing or for choosing thumbnail times.
+ */
+public class TimelineCursorIndex {
+    private static final Logger log = LoggerFactory.getLogger(TimelineCursorIndex.class);
+
+    // The node the cursor is at after all events at a timestamp, for every timestamp where it changes
+    private final TreeMap<Integer, GameMovesModel.Node> cursors = new TreeMap<>();
+    private int[] eventTimestamps;
+
+    private TimelineCursorIndex() {
+    }
+
+    /**
+     * Builds a cursor index by playing through the entire timeline.
+     * The timeline is left at the end; it's up to the caller to move it to the wanted position.
+     * @param timeline the timeline to index
+     * @return the cursor index
+     */
+    public static TimelineCursorIndex build(NavigableGameModelTimeline timeline) {
+        long start = System.currentTimeMillis();
+        TimelineCursorIndex index = new TimelineCursorIndex();
+        int totalEvents = 0;
+        List<Integer> timestamps = new ArrayList<>();
+        GameMovesModel.Node lastCursor = null;
+
+        timeline.jumpTo(0);
+        while (timeline.getNextEventTimestamp() != Integer.MAX_VALUE) {
+            try {
+                timeline.applyNextEvent();
+            } catch (GameEventException e) {
+                log.warn("Failed to apply timeline event when building the cursor index", e);
+            }
+            totalEvents++;
+            if (timeline.getNextEventTimestamp() > timeline.getCurrentTimestamp()) {
+                timestamps.add(timeline.getCurrentTimestamp());
+                GameMovesModel.Node cursor = timeline.getModel().cursor();
+                if (cursor != null && cursor != lastCursor) {
+                    index.cursors.put(timeline.getCurrentTimestamp(), cursor);
+                    lastCursor = cursor;
+                }
+            }
+        }
+
+        index.eventTimestamps = timestamps.stream().mapToInt(Integer::intValue).toArray();
+
+        long stop = System.currentTimeMillis();
+        log.info(String.format("Built cursor index with %d cursor positions over %d events in %d ms",
+                index.cursors.size(), totalEvents, stop - start));
+        return index;
+    }
+
+    /**
+     * @return the distinct timestamps of all events, in order
+     */
+    public int[] getEventTimestamps() {
+        return eventTimestamps;
+    }
+
+    /**
+     * Gets the node the cursor is at at the given time, without moving the timeline.
+     * Game nodes are never changed once created, so the position of the node is what was shown at that time.
+     * @return the node, or null if the cursor hasn't been set at that time
+     */
+    public GameMovesModel.Node getCursorAt(int time) {
+        Map.Entry<Integer, GameMovesModel.Node> entry = cursors.floorEntry(time);
+        return entry == null ? null : entry.getValue();
+    }
+}
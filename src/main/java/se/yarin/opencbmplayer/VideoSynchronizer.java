@@ -0,0 +1,165 @@
+package se.yarin.opencbmplayer;
+
+import javafx.application.Platform;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.co.caprica.vlcj.player.MediaPlayer;
+import uk.co.caprica.vlcj.player.MediaPlayerEventAdapter;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
+
+/**
+ * Keeps the board in sync with the video by listening to the media player events.
+ * Instead of polling the video time, a single wake-up is scheduled at the exact moment
+ * the next timeline event is due, extrapolated from the last reported video time.
+ * Nothing is scheduled while the video is paused or when there are no more events.
+ */
+public class VideoSynchronizer extends MediaPlayerEventAdapter {
+    private static final Logger log = LoggerFactory.getLogger(VideoSynchronizer.class);
+
+    // Don't replace an already scheduled wake-up if it's off by less than this
+    private static final int RESCHEDULE_TOLERANCE_MS = 5;
+
+    private final IntConsumer eventsDue;
+    private final IntConsumer secondChanged;
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "videoSync");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // The last known video time and when it was reported
+    private volatile long anchorTime;
+    private volatile long anchorNanos;
+    private volatile boolean playing;
+    private volatile int lastSecond = -1;
+
+    // Updated from the FX thread after the timeline has been moved
+    private volatile int nextEventTimestamp = Integer.MAX_VALUE;
+
+    private ScheduledFuture<?> pending;
+    private long pendingFor = -1;
+
+    /**
+     * Creates a new synchronizer
+     * @param eventsDue called on the FX thread with the current video time when the next timeline event is due
+     * @param secondChanged called on the FX thread when the video time passes a new second
+     */
+    public VideoSynchronizer(IntConsumer eventsDue, IntConsumer secondChanged) {
+        this.eventsDue = eventsDue;
+        this.secondChanged = secondChanged;
+    }
+
+    /**
+     * Sets the timestamp of the next pending timeline event, or Integer.MAX_VALUE if there are none.
+     * Must be called whenever the timeline has been moved.
+     */
+    public void setNextEventTimestamp(int nextEventTimestamp) {
+        this.nextEventTimestamp = nextEventTimestamp;
+        reschedule();
+    }
+
+    /**
+     * Notifies the synchronizer that the video has been moved to a new time
+     */
+    public void seeked(int time) {
+        updateAnchor(time);
+    }
+
+    /**
+     * @return the current video time, extrapolated from the last time reported by the media player
+     */
+    public int getEstimatedTime() {
+        long time = anchorTime;
+        if (playing) {
+            time += (System.nanoTime() - anchorNanos) / 1_000_000;
+        }
+        return (int) time;
+    }
+
+    @Override
+    public void timeChanged(MediaPlayer mediaPlayer, long newTime) {
+        updateAnchor(newTime);
+    }
+
+    // The callbacks below are invoked on a native event thread, so they don't call back into the
+    // media player; the next timeChanged event will correct the anchor if it's off
+
+    @Override
+    public void playing(MediaPlayer mediaPlayer) {
+        anchorNanos = System.nanoTime();
+        playing = true;
+        reschedule();
+    }
+
+    @Override
+    public void paused(MediaPlayer mediaPlayer) {
+        stop(mediaPlayer);
+    }
+
+    @Override
+    public void stopped(MediaPlayer mediaPlayer) {
+        stop(mediaPlayer);
+    }
+
+    @Override
+    public void finished(MediaPlayer mediaPlayer) {
+        stop(mediaPlayer);
+    }
+
+    private void stop(MediaPlayer mediaPlayer) {
+        anchorTime = getEstimatedTime();
+        anchorNanos = System.nanoTime();
+        playing = false;
+        reschedule();
+    }
+
+    private void updateAnchor(long time) {
+        anchorTime = time;
+        anchorNanos = System.nanoTime();
+
+        int second = (int) (time / 1000);
+        if (second != lastSecond) {
+            lastSecond = second;
+            Platform.runLater(() -> secondChanged.accept((int) time));
+        }
+        reschedule();
+    }
+
+    private synchronized void reschedule() {
+        int next = nextEventTimestamp;
+        if (!playing || next == Integer.MAX_VALUE) {
+            cancelPending();
+            return;
+        }
+        long delay = Math.max(0, next - getEstimatedTime());
+        long dueAt = System.nanoTime() / 1_000_000 + delay;
+        if (pending != null && !pending.isDone() && Math.abs(dueAt - pendingFor) < RESCHEDULE_TOLERANCE_MS) {
+            return;
+        }
+        cancelPending();
+        pendingFor = dueAt;
+        pending = executor.schedule(this::fire, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void cancelPending() {
+        if (pending != null) {
+            pending.cancel(false);
+            pending = null;
+        }
+    }
+
+    private void fire() {
+        int time = getEstimatedTime();
+        if (log.isDebugEnabled()) {
+            log.debug("Timeline event due at " + nextEventTimestamp + ", video at " + time);
+        }
+        // The synchronizer is rescheduled when the callback updates the next event timestamp
+        Platform.runLater(() -> eventsDue.accept(time));
+    }
+}
@@ -0,0 +1,63 @@
+package se.yarin.opencbmplayer;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class LineBreakerTest {
+    // Every character, including the space, is one unit wide
+    private static List<String> breakLines(LineBreaker.Mode mode, String text, double firstLineWidth, double lineWidth) {
+        List<String> lines = new ArrayList<>();
+        for (LineBreaker.Line line : new LineBreaker(mode).breakLines(text, String::length, firstLineWidth, lineWidth)) {
+            lines.add(line.getText());
+        }
+        return lines;
+    }
+
+    @Test
+    public void greedyFillsEachLine() {
+        assertEquals(List.of("aaa bb", "cc", "ddddd"),
+                breakLines(LineBreaker.Mode.GREEDY, "aaa bb cc ddddd", 6, 6));
+    }
+
+    @Test
+    public void minimumRaggednessEvensOutLines() {
+        assertEquals(List.of("aaa", "bb cc", "ddddd"),
+                breakLines(LineBreaker.Mode.MINIMUM_RAGGEDNESS, "aaa bb cc ddddd", 6, 6));
+    }
+
+    @Test
+    public void modesAgreeWhenEverythingFits() {
+        for (LineBreaker.Mode mode : LineBreaker.Mode.values()) {
+            assertEquals(List.of("aa bb cc"), breakLines(mode, "aa bb cc", 20, 20));
+        }
+    }
+
+    @Test
+    public void firstLineHasItsOwnWidth() {
+        for (LineBreaker.Mode mode : LineBreaker.Mode.values()) {
+            assertEquals(List.of("aa", "bb cc"), breakLines(mode, "aa bb cc", 3, 10));
+        }
+    }
+
+    @Test
+    public void wordWiderThanLineGetsItsOwnLine() {
+        for (LineBreaker.Mode mode : LineBreaker.Mode.values()) {
+            assertEquals(List.of("ab", "cdefghij", "kl"), breakLines(mode, "ab cdefghij kl", 4, 4));
+            assertEquals(List.of("abcdefgh", "ij"), breakLines(mode, "abcdefgh ij", 4, 4));
+        }
+    }
+
+    @Test
+    public void lineWidthIncludesSpaces() {
+        for (LineBreaker.Mode mode : LineBreaker.Mode.values()) {
+            List<LineBreaker.Line> lines = new LineBreaker(mode).breakLines("aaa bb cc", String::length, 6, 6);
+            assertEquals(2, lines.size());
+            assertEquals(6, lines.get(0).getWidth(), 0.0);
+            assertEquals(2, lines.get(1).getWidth(), 0.0);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package se.yarin.opencbmplayer;
+
+import org.junit.Test;
+import se.yarin.chess.Date;
+import se.yarin.chess.GameMovesModel;
+import se.yarin.chess.GameResult;
+import se.yarin.chess.NAG;
+import se.yarin.chess.NavigableGameModel;
+import se.yarin.chess.ShortMove;
+import se.yarin.chess.annotations.CommentaryAfterMoveAnnotation;
+import se.yarin.chess.annotations.SymbolAnnotation;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static se.yarin.chess.Chess.*;
+
+public class PgnWriterTest {
+    private static final Pattern TAG = Pattern.compile("^\\[(\\w+) \"((?:[^\"\\\\]|\\\\.)*)\"\\]$", Pattern.MULTILINE);
+
+    private static final ShortMove[] KNIGHT_SHUFFLE = {
+            new ShortMove(G1, F3), new ShortMove(G8, F6), new ShortMove(F3, G1), new ShortMove(F6, G8)
+    };
+
+    private static NavigableGameModel knightShuffle(int plies) {
+        NavigableGameModel game = new NavigableGameModel();
+        for (int ply = 0; ply < plies; ply++) {
+            game.addMove(KNIGHT_SHUFFLE[ply % KNIGHT_SHUFFLE.length]);
+        }
+        return game;
+    }
+
+    private static String write(Map<String, String> tags, NavigableGameModel game,
+                                Map<GameMovesModel.Node, Integer> timestamps) throws IOException {
+        StringWriter out = new StringWriter();
+        new PgnWriter(out).writeGame(tags, game.moves().root(), timestamps);
+        return out.toString();
+    }
+
+    private static Map<String, String> readTags(String pgn) {
+        Map<String, String> tags = new LinkedHashMap<>();
+        Matcher matcher = TAG.matcher(pgn);
+        while (matcher.find()) {
+            tags.put(matcher.group(1), matcher.group(2).replace("\\\"", "\"").replace("\\\\", "\\"));
+        }
+        return tags;
+    }
+
+    // The movetext tokens without comments, variations and move numbers
+    private static List<String> readMainLine(String pgn) {
+        String moveText = pgn.substring(pgn.indexOf("\n\n") + 2)
+                .replaceAll("\\{[^}]*\\}", " ")
+                .replaceAll("\\d+\\.(\\.\\.)?", " ");
+        while (moveText.contains("(")) {
+            moveText = moveText.replaceAll("\\([^()]*\\)", " ");
+        }
+        return Arrays.asList(moveText.trim().split("\\s+"));
+    }
+
+    private static List<String> sanOf(NavigableGameModel game) {
+        List<String> moves = new ArrayList<>();
+        GameMovesModel.Node node = game.moves().root();
+        while (node.hasMoves()) {
+            node = node.mainNode();
+            moves.add(node.lastMove().toSAN());
+        }
+        return moves;
+    }
+
+    @Test
+    public void tagsAndMovesRoundTrip() throws IOException {
+        NavigableGameModel game = knightShuffle(12);
+        Map<String, String> tags = new LinkedHashMap<>();
+        tags.put("Event", "Lecture \"Knights\"");
+        tags.put("Date", PgnWriter.dateOf(new Date(2015, 8, 3)));
+        tags.put("Result", PgnWriter.resultOf(GameResult.DRAW));
+        tags.put("Annotator", "C:\\lectures");
+
+        String pgn = write(tags, game, Collections.emptyMap());
+
+        assertEquals(tags, readTags(pgn));
+        List<String> tokens = readMainLine(pgn);
+        assertEquals(sanOf(game), tokens.subList(0, tokens.size() - 1));
+        assertEquals("1/2-1/2", tokens.get(tokens.size() - 1));
+    }
+
+    @Test
+    public void commentsAndVariationsRoundTrip() throws IOException {
+        NavigableGameModel game = knightShuffle(8);
+        GameMovesModel.Node second = game.moves().root().mainNode().mainNode();
+        game.setCursor(second);
+        game.addAnnotation(new CommentaryAfterMoveAnnotation("A {braced} comment"));
+        game.setCursor(second.parent());
+        game.addMove(new ShortMove(B8, C6));
+
+        String pgn = write(PgnWriter.tagsOf(game.header()), game, Collections.emptyMap());
+
+        List<String> tokens = readMainLine(pgn);
+        assertEquals(sanOf(game), tokens.subList(0, tokens.size() - 1));
+        assertTrue(pgn, pgn.contains("{A (braced) comment}"));
+        assertTrue(pgn, pgn.contains("(1...Nc6)"));
+    }
+
+    @Test
+    public void resultsAreMappedToPgn() {
+        assertEquals("1-0", PgnWriter.resultOf(GameResult.WHITE_WINS));
+        assertEquals("0-1", PgnWriter.resultOf(GameResult.BLACK_WINS));
+        assertEquals("1/2-1/2", PgnWriter.resultOf(GameResult.DRAW));
+        assertEquals("1-0", PgnWriter.resultOf(GameResult.WHITE_WINS_ON_FORFEIT));
+        assertEquals("*", PgnWriter.resultOf(GameResult.NOT_FINISHED));
+        assertEquals("*", PgnWriter.resultOf(null));
+    }
+
+    @Test
+    public void datesHaveQuestionMarksForUnknownParts() {
+        assertEquals("2015.08.03", PgnWriter.dateOf(new Date(2015, 8, 3)));
+        assertEquals("2015.08.??", PgnWriter.dateOf(new Date(2015, 8, 0)));
+        assertEquals("2015.??.??", PgnWriter.dateOf(new Date(2015, 0, 0)));
+        assertEquals("????.??.??", PgnWriter.dateOf(null));
+    }
+
+    @Test
+    public void terminationMarkerIsAValidResult() throws IOException {
+        Map<String, String> tags = new LinkedHashMap<>();
+        tags.put("Result", "½-½");
+
+        String pgn = write(tags, knightShuffle(2), Collections.emptyMap());
+
+        assertTrue(pgn, pgn.trim().endsWith("Nf6 *"));
+    }
+
+    @Test
+    public void blackMoveIsNumberedAfterSymbolComment() throws IOException {
+        NavigableGameModel game = knightShuffle(2);
+        game.setCursor(game.moves().root().mainNode());
+        game.addAnnotation(new SymbolAnnotation(NAG.WHITE_SLIGHT_ADVANTAGE));
+
+        String pgn = write(new LinkedHashMap<>(), game, Collections.emptyMap());
+
+        assertTrue(pgn, Pattern.compile("1\\.Nf3 \\{[^}]+\\} 1\\.\\.\\.Nf6").matcher(pgn).find());
+    }
+
+    @Test
+    public void blackMoveIsNumberedAfterTimestamp() throws IOException {
+        NavigableGameModel game = knightShuffle(2);
+        Map<GameMovesModel.Node, Integer> timestamps = new HashMap<>();
+        timestamps.put(game.moves().root().mainNode(), 65000);
+
+        String pgn = write(new LinkedHashMap<>(), game, timestamps);
+
+        assertTrue(pgn, pgn.contains("1.Nf3 {[%evt t=1:05]} 1...Nf6 *"));
+    }
+}